@@ -0,0 +1,80 @@
+package com.yibo.common.bolt.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 对比两次 -rf json 的结果，有基准退化超过阈值时以非0状态退出，用于CI中的回归检查。
+ * <p>
+ * 运行: java -cp target/common-util-1.0.0-benchmarks.jar com.yibo.common.bolt.benchmark.BenchmarkGate
+ * baseline.json result.json [阈值百分比，默认10]。
+ * 基线和本次结果需要在同一台机器上跑出来，绝对值在不同机器之间没有可比性。
+ * 吞吐类(thrpt)的分数越低越差，其他模式的分数是耗时，越高越差；基线中没有的基准只打印不检查。
+ */
+public final class BenchmarkGate {
+
+    private static final double DEFAULT_THRESHOLD_PERCENT = 10D;
+
+    private BenchmarkGate() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BenchmarkGate <baseline.json> <result.json> [thresholdPercent]");
+            System.exit(2);
+        }
+        final double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+        final Map<String, JSONObject> baseline = read(args[0]);
+        final Map<String, JSONObject> result = read(args[1]);
+        int regressions = 0;
+        for (Map.Entry<String, JSONObject> entry : result.entrySet()) {
+            final double score = score(entry.getValue());
+            final JSONObject base = baseline.get(entry.getKey());
+            if (base == null) {
+                System.out.printf("NEW   %s %.3f%n", entry.getKey(), score);
+                continue;
+            }
+            final double baseScore = score(base);
+            final boolean throughput = "thrpt".equals(entry.getValue().getString("mode"));
+            // 正数表示变差的百分比
+            final double worse = (throughput ? baseScore - score : score - baseScore) / baseScore * 100;
+            final boolean regressed = worse > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%s %s %.3f -> %.3f (%+.1f%%)%n", regressed ? "FAIL " : "OK   ", entry.getKey(),
+                    baseScore, score, -worse);
+        }
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed more than %.1f%%%n", regressions, threshold);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return 基准名加参数 -> 结果
+     */
+    private static Map<String, JSONObject> read(String file) throws IOException {
+        final JSONArray array = JSON.parseArray(new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8));
+        final Map<String, JSONObject> results = new LinkedHashMap<>();
+        for (int i = 0; i < array.size(); i++) {
+            final JSONObject item = array.getJSONObject(i);
+            final JSONObject params = item.getJSONObject("params");
+            results.put(item.getString("benchmark") + (params == null ? "" : new TreeMap<>(params).toString()), item);
+        }
+        return results;
+    }
+
+    private static double score(JSONObject item) {
+        return item.getJSONObject("primaryMetric").getDoubleValue("score");
+    }
+}
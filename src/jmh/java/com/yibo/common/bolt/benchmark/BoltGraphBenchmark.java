@@ -0,0 +1,239 @@
+package com.yibo.common.bolt.benchmark;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.yibo.common.bolt.Bolt;
+import com.yibo.common.bolt.BoltGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@link BoltGraph#execute(Object)} 的吞吐和分配基准，覆盖几种典型的图形状：
+ * <ul>
+ * <li>wideFanOut: 一个节点依赖 width 个 ValueBolt</li>
+ * <li>deepChain: depth 个 FunctionBolt 串成一条链</li>
+ * <li>switchTree: 深度为 switchDepth 的 PredicateSwitchBolt 满二叉树，每次只走一条路径</li>
+ * <li>optionalMix: 必选、可选成功、可选失败的依赖各占一部分</li>
+ * <li>wideFanOutFreshGraph: 每次执行都新建图，对比计划复用前的用法</li>
+ * </ul>
+ * 所有Bolt都是同步的，测的是引擎本身每个节点的开销。
+ * <p>
+ * 运行: mvn -Pbenchmark package，然后 java -jar target/common-util-1.0.0-benchmarks.jar -prof gc，
+ * 加 -rf json -rff result.json 可以保存结果，再用 {@link BenchmarkGate} 和基线对比；也可以直接运行 {@link #main(String[])}，默认带GC profiler。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoltGraphBenchmark {
+
+    private static final Slot[] SLOTS = Slot.values();
+
+    private static final Exception FAILURE = new IllegalStateException("benchmark failure");
+
+    @Param({"100"})
+    public int width;
+
+    @Param({"50"})
+    public int depth;
+
+    @Param({"6"})
+    public int switchDepth;
+
+    @Param({"12"})
+    public int optionalWidth;
+
+    private BoltGraph<Integer, Integer> wide;
+
+    private BoltGraph<Integer, Integer> deep;
+
+    private BoltGraph<Integer, Integer> switchTree;
+
+    private BoltGraph<Integer, Integer> optionalMix;
+
+    private int input;
+
+    @Setup
+    public void setup() {
+        checkArgument(width <= SLOTS.length && optionalWidth <= SLOTS.length,
+                "at most %s dependencies are supported.", SLOTS.length);
+        wide = graph(new BoltFactory<Integer>() {
+            @Override
+            public Bolt<Integer> create() {
+                return wide(width);
+            }
+        });
+        deep = graph(new BoltFactory<Integer>() {
+            @Override
+            public Bolt<Integer> create() {
+                Bolt<Integer> bolt = new Bolt.Builder<Integer>(InputBolt.class).build();
+                for (int i = 0; i < depth; i++) {
+                    bolt = Bolt.transform(bolt, (Integer x) -> x + 1);
+                }
+                return bolt;
+            }
+        });
+        switchTree = graph(new BoltFactory<Integer>() {
+            @Override
+            public Bolt<Integer> create() {
+                return switchTree(new Bolt.Builder<Integer>(InputBolt.class).build(), switchDepth);
+            }
+        });
+        optionalMix = graph(new BoltFactory<Integer>() {
+            @Override
+            public Bolt<Integer> create() {
+                final Bolt.Builder<Integer> builder = new Bolt.Builder<Integer>(new SumBolt(optionalWidth));
+                for (int i = 0; i < optionalWidth; i++) {
+                    switch (i % 3) {
+                        case 0:
+                            builder.dependsOn(SLOTS[i], Bolt.value(i));
+                            break;
+                        case 1:
+                            builder.dependsOn(SLOTS[i], Bolt.value(i), true);
+                            break;
+                        default:
+                            builder.dependsOn(SLOTS[i], new Bolt.Builder<Integer>(FailBolt.class).build(), true);
+                    }
+                }
+                return builder.build();
+            }
+        });
+    }
+
+    @Benchmark
+    public Integer wideFanOut() throws Exception {
+        return wide.execute(next()).get();
+    }
+
+    @Benchmark
+    public Integer deepChain() throws Exception {
+        return deep.execute(next()).get();
+    }
+
+    @Benchmark
+    public Integer switchTree() throws Exception {
+        return switchTree.execute(next()).get();
+    }
+
+    @Benchmark
+    public Integer optionalMix() throws Exception {
+        return optionalMix.execute(next()).get();
+    }
+
+    @Benchmark
+    public Integer wideFanOutFreshGraph() throws Exception {
+        return new BoltGraph<Integer, Integer>() {
+            @Override
+            protected Bolt<Integer> createGraph() {
+                return wide(width);
+            }
+        }.execute(next()).get();
+    }
+
+    private int next() {
+        return input++ & 0xFFFF;
+    }
+
+    private static Bolt<Integer> wide(int width) {
+        final Bolt.Builder<Integer> builder = new Bolt.Builder<Integer>(new SumBolt(width));
+        for (int i = 0; i < width; i++) {
+            builder.dependsOn(SLOTS[i], Bolt.value(i));
+        }
+        return builder.build();
+    }
+
+    private static Bolt<Integer> switchTree(Bolt<Integer> input, final int level) {
+        if (level == 0) {
+            return Bolt.transform(input, (Integer x) -> x + 1);
+        }
+        final Bolt<Boolean> predicate = Bolt.transform(input, (Integer x) -> ((x >>> level) & 1) == 1);
+        return Bolt.ifThenElse(predicate, switchTree(input, level - 1), switchTree(input, level - 1));
+    }
+
+    private static <I, O> BoltGraph<I, O> graph(final BoltFactory<O> factory) {
+        return new BoltGraph<I, O>() {
+            @Override
+            protected Bolt<O> createGraph() {
+                return factory.create();
+            }
+        };
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BoltGraphBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    private interface BoltFactory<O> {
+
+        Bolt<O> create();
+    }
+
+    /**
+     * 返回图的输入
+     */
+    public static class InputBolt extends Bolt<Integer> {
+
+        @Override
+        protected ListenableFuture<Integer> evaluate() throws Exception {
+            final Integer input = getInput();
+            return Futures.immediateFuture(input);
+        }
+    }
+
+    /**
+     * 对前 width 个依赖求和，可选依赖失败时按0计算。
+     * 失败不走 {@link Bolt#getDep(Enum, Object)}，它会打印带堆栈的warn日志，测出来的就是日志的开销而不是引擎的开销
+     */
+    public static class SumBolt extends Bolt<Integer> {
+
+        private final int width;
+
+        public SumBolt(int width) {
+            this.width = width;
+        }
+
+        @Override
+        protected ListenableFuture<Integer> evaluate() throws Exception {
+            int sum = 0;
+            for (int i = 0; i < width; i++) {
+                try {
+                    final Integer value = getDep(SLOTS[i]);
+                    sum += value;
+                } catch (IllegalStateException e) {
+                    // FailBolt的失败
+                }
+            }
+            return Futures.immediateFuture(sum);
+        }
+    }
+
+    public static class FailBolt extends Bolt<Integer> {
+
+        @Override
+        protected ListenableFuture<Integer> evaluate() throws Exception {
+            throw FAILURE;
+        }
+    }
+}
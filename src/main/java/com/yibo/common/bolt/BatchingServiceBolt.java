@@ -0,0 +1,74 @@
+package com.yibo.common.bolt;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * 批量合并请求的ServiceBolt，适合按id逐个查询、但后端支持批量接口的场景。
+ * <p>
+ * {@link #evaluate()} 中通过 {@link #batchKey()} 由依赖计算key后放入同类Bolt共享的批次，
+ * 在 {@link #getBatchWindowMillis()} 的窗口内或攒够 {@link #getMaxBatchSize()} 个key后，
+ * 由 {@link #loadAll(Set)} 一次性加载，再把结果分发给每个等待的Bolt。结果中没有的key得到null。
+ * 批次在这个类第一次执行时创建，之后所有图中同类的实例都使用第一个实例的 {@link #loadAll(Set)}、服务、窗口和批次大小，
+ * 所以同一个类的实例之间不能有区别，需要不同配置时请定义不同的子类。
+ * <p>
+ * {@link #loadAll(Set)} 在批次的线程上执行，不属于任何一次图的执行，只能使用key和 {@link #getService(Class)} 等服务，
+ * 不能调用 {@link #getDep(Enum)}。
+ *
+ * @param <K> key，需要实现equals和hashCode
+ * @param <O> 单个key的结果
+ */
+public abstract class BatchingServiceBolt<K, O> extends ServiceBolt<O> {
+
+    private static final ConcurrentMap<Class<?>, BoltBatcher<?, ?>> BATCHERS = new ConcurrentHashMap<>();
+
+    @Override
+    protected final ListenableFuture<O> evaluate() throws Exception {
+        final K key = batchKey();
+        checkNotNull(key, "Bolt %s batchKey() returned null!", getName());
+        return batcher().add(key);
+    }
+
+    /**
+     * 根据依赖计算本次要加载的key
+     */
+    protected abstract K batchKey() throws Exception;
+
+    /**
+     * 批量加载一批key
+     */
+    protected abstract ListenableFuture<Map<K, O>> loadAll(Set<K> keys) throws Exception;
+
+    /**
+     * 从第一个key到达开始，最多等待多久就发起批量加载
+     */
+    protected long getBatchWindowMillis() {
+        return 5L;
+    }
+
+    /**
+     * 一批最多多少个不同的key，攒够后立即发起批量加载
+     */
+    protected int getMaxBatchSize() {
+        return 100;
+    }
+
+    private BoltBatcher<K, O> batcher() {
+        BoltBatcher<?, ?> batcher = BATCHERS.get(getClass());
+        if (batcher == null) {
+            batcher = BATCHERS.computeIfAbsent(getClass(), clazz -> {
+                checkArgument(getMaxBatchSize() > 0, "max batch size of %s must be positive.", getName());
+                return new BoltBatcher<>(this, getName(), BoltScheduler.executor(Workload.BLOCKING, bulkhead()),
+                        getBatchWindowMillis(), getMaxBatchSize());
+            });
+        }
+        return (BoltBatcher<K, O>) batcher;
+    }
+}
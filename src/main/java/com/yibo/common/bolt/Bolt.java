@@ -4,6 +4,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.*;
 import com.google.common.util.concurrent.*;
+import com.yibo.common.bolt.annotation.BoltWorkload;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
@@ -12,22 +13,26 @@ import org.slf4j.LoggerFactory;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.collect.Lists.newArrayListWithExpectedSize;
-import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 
 /**
  * Bolt的概念来源于Storm， 一个Bolt类似一个插槽，在整个执行过程中，代表一段业务处理逻辑。
- * Bolt执行时通过递归来发现其依赖的Bolt，当其依赖的Bolt完成时，才会真正执行 {@link Bolt#evaluate()}
+ * Bolt执行前会被编译成 {@link BoltPlan}，按拓扑序启动，当其依赖的Bolt完成时，才会真正执行 {@link Bolt#evaluate()}
  * 业务代码需要实现{@link Bolt#evaluate()}并提供异步返回结果。
  * <p>
+ * Bolt实例只描述结构，是可以被多次执行的模板，执行状态保存在每次执行的 {@link BoltContext} 中。
+ * 所以不要在Bolt的字段中保存单次执行的数据。
+ * <p>
+ * 在生命周期方法中，{@link Bolt#getDep(Enum)}、{@link Bolt#emit()} 等方法使用当前线程上的执行上下文。
+ * 在 evaluate 注册的回调等其他线程上，使用这个Bolt最近一次参与的执行：每次请求新建的Bolt（以前的用法）不受影响；
+ * 同一个实例被多次执行后，在其他线程上调用会抛出 {@link IllegalStateException}，
+ * 这时需要在 evaluate 中先取出依赖的值，再在回调中使用。
+ * <p>
  * {@link Bolt#sinkBolts} 表示当前Bolt执行完后，发送通知即可。不需要等待{@link Bolt#sinkBolts}执行结果。
  * 比如用来发送非可靠的消息通知
  * <p>
@@ -37,15 +42,29 @@ import static com.google.common.util.concurrent.Uninterruptibles.getUninterrupti
  * 同步调用类似。需要自行处理。在{@link Bolt#evaluate()} 中调用{@link Bolt#getDep(Enum)} 不会阻塞。
  * <p>
  * <p>
- * 如果 {@link Bolt#evaluate()} 是一个耗时的操作，可以单独设置 {@link Bolt#executor} 一个线程池
+ * 如果 {@link Bolt#evaluate()} 是一个耗时的操作，可以单独设置 {@link Bolt#executor} 一个线程池，
+ * 或者通过 {@link BoltWorkload} / {@link Builder#withWorkload(Workload)} 声明负载类型，由 {@link BoltScheduler} 分配
  * .
  */
 public abstract class Bolt<O> {
     public static final Bolt NULL_NODE = Bolt.value(null);
+    /**
+     * 同一个实例参与过不止一次执行，不能再确定回调属于哪一次
+     */
+    private static final Object SHARED = new Object();
     protected final Logger log = LoggerFactory.getLogger(getClass());
-    private final AtomicBoolean evaluated = new AtomicBoolean();
-    private final SettableFuture<O> future = SettableFuture.create();
-    BoltGraph graph = null;
+    /**
+     * 不通过 {@link BoltGraph} 而直接执行时使用的上下文
+     */
+    private volatile BoltContext standalone;
+    /**
+     * 最近一次参与的执行，参与过多次执行后为 {@link #SHARED}，见 {@link #bind(BoltContext)}
+     */
+    private volatile Object bound;
+    /**
+     * 被编译进执行计划后，结构不允许再修改
+     */
+    private volatile boolean compiled;
     private String name;
     private List<Bolt> sinkBolts;
     /**
@@ -56,18 +75,25 @@ public abstract class Bolt<O> {
      * 一些失败可以继续执行的依赖Key
      */
     private ImmutableSet<Enum> optionals;
+    /**
+     * 设置了超时和兜底值的依赖Key
+     */
+    private ImmutableMap<Enum, DependencyTimeout> timeouts;
+    /**
+     * 为null时按 {@link #workload()} 由 {@link BoltScheduler} 分配
+     */
     private Executor executor;
-    private long startTimeMs;
-    private long evaluateStartTimeMs;
-    private long evaluateStopTimeMs;
-    private long stopTimeMs;
+    private Workload workload;
+    private String bulkhead;
+    private HedgePolicy hedgePolicy;
+    private CircuitBreaker circuitBreaker;
 
     protected Bolt() {
         this.name = getClass().getSimpleName();
         this.sinkBolts = ImmutableList.of();
         this.dependencies = ImmutableMap.of();
         this.optionals = ImmutableSet.of();
-        this.executor = MoreExecutors.sameThreadExecutor();
+        this.timeouts = ImmutableMap.of();
     }
 
     public static <T> Bolt<T> build(Class<? extends Bolt<T>> boltClass, Pair<Enum, Bolt>... dependencies) {
@@ -84,7 +110,11 @@ public abstract class Bolt<O> {
 
     public static <T> Bolt<T> value(T value, String name) {
 
-        return value(() -> value, name);
+        ValueBolt<T> valueBolt = new ValueBolt<>(value);
+        if (StringUtils.isNotEmpty(name)) {
+            ((Bolt) valueBolt).name = name;
+        }
+        return valueBolt;
     }
 
     public static <T> Bolt<T> value(Supplier<T> supplier) {
@@ -116,6 +146,26 @@ public abstract class Bolt<O> {
         return new FunctionBolt(from, function);
     }
 
+    /**
+     * 对 from 的每个元素调用 function，最多同时执行 parallelism 个，结果按原顺序排列，任一元素失败则整体失败
+     *
+     * @param name 名字，用于监控指标、熔断和bulkhead，不同的扇出需要使用不同的名字
+     */
+    public static <T, R> Bolt<List<R>> forEach(String name, Bolt<List<T>> from, Function<T, ListenableFuture<R>> function,
+                                               int parallelism) {
+        return forEach(name, from, function, parallelism, ItemFailurePolicy.<R>failFast());
+    }
+
+    /**
+     * @param name   名字，用于监控指标、熔断和bulkhead，不同的扇出需要使用不同的名字
+     * @param policy 单个元素失败时的处理方式
+     * @see #forEach(String, Bolt, Function, int)
+     */
+    public static <T, R> Bolt<List<R>> forEach(String name, Bolt<List<T>> from, Function<T, ListenableFuture<R>> function,
+                                               int parallelism, ItemFailurePolicy<R> policy) {
+        return new ForEachBolt<>(name, from, function, parallelism, policy);
+    }
+
     public String getName() {
         return name;
     }
@@ -124,116 +174,40 @@ public abstract class Bolt<O> {
         return getName();
     }
 
+    /**
+     * 单独执行当前Bolt及其依赖，同一个实例只会执行一次，重复调用返回同一个结果。
+     * 需要重复执行时请使用 {@link BoltGraph}
+     *
+     * @return 执行结果
+     */
     public final ListenableFuture<O> execute() {
-        if (!evaluated.compareAndSet(false, true)) {
-            return future;
+        BoltContext context = standalone;
+        if (context != null) {
+            return (ListenableFuture<O>) context.future(context.getPlan().root());
         }
-
-        Pair<ListenableFuture, ListenableFuture> dependencies = futureFromDependencies();
-        final ListenableFuture required = dependencies.getLeft();
-        // optional的不要影响主流程
-        final ListenableFuture optional = dependencies.getRight();
-
-        startTimeMs = System.currentTimeMillis();
-
-        try {
-            final Class<? extends Bolt> clazz = this.getClass();
-            Futures.addCallback(required, new FutureCallback() {
-                @Override
-                public void onSuccess(Object result) {
-                    if (graph != null && graph.isCompleted()) {
-                        // 流程结束，由于依赖关系，可以保证后续节点不会继续执行，设置null只是触发下完成状态。
-                        future.set(null);
-                        aborted();
-                        return;
-                    }
-
-                    evaluateStartTimeMs = System.currentTimeMillis();
-                    try {
-                        preEvaluate();
-
-                        final ListenableFuture<O> val = evaluate();
-
-                        if (val == null) {
-                            throw new NullPointerException(
-                                    String.format("Bolt %s evaluate() returned null Future object!", getName()));
-                        }
-
-                        evaluateStopTimeMs = System.currentTimeMillis();
-                        postEvaluate(val);
-
-
-                        Futures.addCallback(val, new FutureCallback<O>() {
-                            @Override
-                            public void onSuccess(O result) {
-                                ensueComplete(result, null, true);
-                            }
-
-                            @Override
-                            public void onFailure(Throwable t) {
-                                ensueComplete(null, t, true);
-                            }
-                        });
-                        if (log.isDebugEnabled()) {
-                            log.debug("{} evaluate cost {} ms", getName(), evaluateStopTimeMs - evaluateStartTimeMs);
-                        }
-                        // valuebolt的名字跟hashcode有关，记录监控的话指标太多
-                        if (ServiceBolt.class.isAssignableFrom(clazz)) {
-                            // 监控记录 name 和时间
-                            log.info("bolt{} 消耗时间{}",getName(), evaluateStopTimeMs - evaluateStartTimeMs);
-                        }
-                    } catch (Throwable e) {
-                        evaluateStopTimeMs = System.currentTimeMillis();
-                        ensueComplete(null, e, false);
-                    }
-                }
-
-                /**
-                 * 这里只传递异常，不负责具体处理
-                 *
-                 * @param t
-                 */
-                @Override
-                public void onFailure(Throwable t) {
-                    future.setException(t);
-                }
-            }, this.executor);
-        } catch (Throwable e) {
-            future.setException(e);
-        } finally {
-            stopTimeMs = System.currentTimeMillis();
+        synchronized (this) {
+            context = standalone;
+            if (context != null) {
+                return (ListenableFuture<O>) context.future(context.getPlan().root());
+            }
+            context = new BoltContext(BoltPlan.compile(this), getName(), null);
+            standalone = context;
         }
-
-
-        return future;
+        return context.start();
     }
 
     public final O emit() throws Exception {
-        try {
-            return getUninterruptibly(future);
-        } catch (ExecutionException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof Error) {
-                throw new RuntimeException(cause);
-            }
-            throw (Exception) e.getCause();
-        }
+        final BoltContext context = contextOf(this);
+        return (O) context.emit(context.indexOf(this));
     }
 
     public final O emit(long timeout, TimeUnit unit) throws Exception {
-        try {
-            return getUninterruptibly(future, timeout, unit);
-        } catch (ExecutionException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof Error) {
-                throw new RuntimeException(cause);
-            }
-            throw (Exception) e.getCause();
-        }
+        final BoltContext context = contextOf(this);
+        return (O) context.emit(context.indexOf(this), timeout, unit);
     }
 
     public final void setSinkBolts(List<Bolt> sinkBolts) {
-        Preconditions.checkArgument(!evaluated.get(), "Bolt [%s] has been executed.", getName());
+        Preconditions.checkArgument(!compiled && standalone == null, "Bolt [%s] has been executed.", getName());
         Preconditions.checkNotNull(sinkBolts);
         this.sinkBolts = sinkBolts;
     }
@@ -288,9 +262,8 @@ public abstract class Bolt<O> {
      */
     protected final <T> T getDep(Enum name, T defaultValue) {
         checkArgument(name != null, "name must not be null.");
-        Bolt<T> bolt = getDepBolt(name);
         try {
-            T val = bolt.emit();
+            T val = (T) context().emit(context().dependency(this, name));
             return val == null ? defaultValue : val;
         } catch (Throwable e) {
             log.warn("getDep {} ignore this error:", name, e);
@@ -310,9 +283,8 @@ public abstract class Bolt<O> {
         checkArgument(name != null, "name must not be null.");
         checkArgument(timeout > 0, "timeout must be positive");
         checkNotNull(unit, "time unit cannot be null");
-        Bolt<T> bolt = getDepBolt(name);
         try {
-            T val = bolt.emit(timeout, unit);
+            T val = (T) context().emit(context().dependency(this, name), timeout, unit);
             return val == null ? defaultValue : val;
         } catch (Throwable e) {
             log.warn("getDep {} ignore this error:", name, e);
@@ -321,7 +293,7 @@ public abstract class Bolt<O> {
     }
 
     /**
-     * 获取以来只
+     * 获取依赖值
      *
      * @param name
      * @param <T>
@@ -330,7 +302,8 @@ public abstract class Bolt<O> {
      */
     protected final <T> T getDep(Enum name) throws Exception {
         checkArgument(name != null, "name must not be null.");
-        return (T) getDepBolt(name).emit();
+        final BoltContext context = context();
+        return (T) context.emit(context.dependency(this, name));
     }
 
     /**
@@ -339,7 +312,7 @@ public abstract class Bolt<O> {
      * @return
      */
     protected final long getStartTimeMs() {
-        return startTimeMs;
+        return getTime(BoltContext.START);
     }
 
     /**
@@ -348,7 +321,7 @@ public abstract class Bolt<O> {
      * @return
      */
     protected final long getEvaluateStartTimeMs() {
-        return evaluateStartTimeMs;
+        return getTime(BoltContext.EVALUATE_START);
     }
 
     /**
@@ -357,7 +330,7 @@ public abstract class Bolt<O> {
      * @return
      */
     protected final long getEvaluateStopTimeMs() {
-        return evaluateStopTimeMs;
+        return getTime(BoltContext.EVALUATE_STOP);
     }
 
     /**
@@ -366,93 +339,203 @@ public abstract class Bolt<O> {
      * @return
      */
     protected final long getStopTimeMs() {
-        return stopTimeMs;
-    }
-
-    Bolt<O> register(BoltGraph graph) {
-        if (graph != null && this.graph == null) {
-            synchronized (this) {
-                if (this.graph == null) {
-                    this.graph = graph;
-                } else {
-                    if (this.graph != graph) {
-                        throw new IllegalStateException(
-                                "register a difference Graph to this Bolt " + getName() + "in " + this.graph.getClass().getName() + ", new graph class " + graph == null ?
-                                        "null" : graph.getClass().getName());
-                    }
-                }
-            }
-        }
-        return this;
+        return getTime(BoltContext.STOP);
+    }
+
+    /**
+     * 本次图执行的输入，见 {@link BoltGraph#execute(Object)}
+     *
+     * @param <T>
+     * @return 单独执行或者没有输入时为null
+     */
+    protected final <T> T getInput() {
+        return (T) context().getInput();
     }
 
-    private Pair<ListenableFuture, ListenableFuture> futureFromDependencies() {
-        final List<ListenableFuture<Object>> requiredFutures = newArrayListWithExpectedSize(dependencies.size());
-        final List<ListenableFuture<Object>> optionalFutures = newArrayListWithExpectedSize(dependencies.size());
+    /**
+     * 距离图执行截止时间的剩余时间，RPC、SQL等调用可以据此设置自己的超时时间
+     *
+     * @param unit 时间单位
+     * @return 剩余时间，已经超时返回0，没有设置截止时间返回 {@link Long#MAX_VALUE}
+     * @see BoltGraph#execute(Object, long, TimeUnit)
+     */
+    protected final long getRemainingTime(TimeUnit unit) {
+        return context().getRemainingTime(unit);
+    }
 
-        for (Map.Entry<Enum, Bolt> item : dependencies.entrySet()) {
-            if (optionals.contains(item.getKey())) {
-                optionalFutures.add(item.getValue().register(graph).execute());
-            } else {
-                requiredFutures.add(item.getValue().register(graph).execute());
-            }
-        }
+    /**
+     * 在当前执行中启动另一个节点，用于按条件执行的分支
+     *
+     * @param bolt 需要在 {@link #branches()} 中声明
+     * @param <T>
+     * @return 节点结果
+     */
+    final <T> ListenableFuture<T> activate(Bolt<T> bolt) {
+        return (ListenableFuture<T>) (ListenableFuture) context().activate(bolt);
+    }
 
-        final ListenableFuture<List<Object>> combinedOptionalFutures = Futures.successfulAsList(optionalFutures);
-        final ListenableFuture<List<Object>> combinedRequiredFutures = Futures.allAsList(requiredFutures);
-//        ListenableFuture combinedFuture = Futures.allAsList(combinedOptionalFutures, combinedRequiredFutures);
-        return Pair.of(combinedRequiredFutures, combinedOptionalFutures);
+    /**
+     * 当前执行中，绑定在本节点上的附加对象，比如trace的span。对冲调用中是对冲调用自己的附加对象
+     */
+    final Object getAttachment() {
+        final BoltContext context = context();
+        return context.getAttachment(context.indexOf(this));
     }
 
-    private void applySinkBolts() {
-        for (Bolt node : sinkBolts) {
-            try {
-                Futures.addCallback(node.register(graph).execute(), new FutureCallback() {
-                    @Override
-                    public void onSuccess(Object result) {
-
-                    }
-
-                    @Override
-                    public void onFailure(Throwable t) {
-                        log.error("sinkBolt evaluated failed.", t);
-                    }
-                });
-            } catch (Throwable e) {
-                //ignore
-                log.warn("sink bolt {} ignore this error: ", node.getName(), e);
-            }
+    final void setAttachment(Object attachment) {
+        final BoltContext context = context();
+        context.setAttachment(context.indexOf(this), attachment);
+    }
+
+    /**
+     * 对冲调用的 evaluate 和 postEvaluate 结束后在同一个线程上调用，用于清理对冲调用自己的附加对象
+     *
+     * @param future 对冲调用的结果，evaluate 同步失败时为null
+     * @param e      evaluate 同步失败的原因
+     */
+    void completeHedge(ListenableFuture<O> future, Throwable e) {
+    }
+
+    final ImmutableMap<Enum, Bolt> dependencies() {
+        return dependencies;
+    }
+
+    final ImmutableSet<Enum> optionals() {
+        return optionals;
+    }
+
+    final ImmutableMap<Enum, DependencyTimeout> timeouts() {
+        return timeouts;
+    }
+
+    final List<Bolt> sinkBolts() {
+        return sinkBolts;
+    }
+
+    /**
+     * @return 指定的executor，没有指定时按负载类型分配
+     */
+    final Executor executor() {
+        return executor != null ? executor : BoltScheduler.executor(this);
+    }
+
+    /**
+     * 负载类型，优先级：{@link Builder#withWorkload(Workload)} > {@link BoltWorkload} > {@link #defaultWorkload()}
+     */
+    final Workload workload() {
+        if (workload != null) {
+            return workload;
         }
+        final BoltWorkload annotation = getClass().getAnnotation(BoltWorkload.class);
+        return annotation != null ? annotation.value() : defaultWorkload();
     }
 
-    private <T> Bolt<T> getDepBolt(Enum name) {
-        checkNotNull(name, "name must not be null.");
-        Bolt<T> bolt = dependencies.get(name);
-        checkNotNull(bolt, "dependency '%s' not initiated.", name);
-        return bolt;
+    /**
+     * {@link Workload#BLOCKING} 使用的线程池名字，没有声明时共用 {@link BoltScheduler#DEFAULT_BULKHEAD}
+     */
+    final String bulkhead() {
+        if (StringUtils.isNotBlank(bulkhead)) {
+            return bulkhead;
+        }
+        final BoltWorkload annotation = getClass().getAnnotation(BoltWorkload.class);
+        if (annotation != null && StringUtils.isNotBlank(annotation.bulkhead())) {
+            return annotation.bulkhead();
+        }
+        return BoltScheduler.DEFAULT_BULKHEAD;
     }
 
-    private void ensueComplete(O result, Throwable e, boolean completedInCallback) {
-        try {
-            completeEvaluate(null, e, completedInCallback);
-            if (e != null) {
-                future.setException(e);
-            } else {
-                future.set(result);
+    /**
+     * @return 对冲策略，没有设置时为null
+     */
+    final HedgePolicy hedgePolicy() {
+        return hedgePolicy;
+    }
+
+    /**
+     * @return 熔断设置，没有设置时为null
+     */
+    final CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return 并发限制，不限制时为null
+     */
+    BoltLimiter limiter() {
+        return null;
+    }
+
+    Workload defaultWorkload() {
+        return Workload.TRIVIAL;
+    }
+
+    /**
+     * 监控指标使用的名字，需要在多次执行间保持稳定
+     *
+     * @return null 表示不记录监控
+     */
+    String metricName() {
+        return getName();
+    }
+
+    /**
+     * 执行过程中才会按条件启动的节点，编译执行计划时需要提前知道
+     */
+    List<Bolt> branches() {
+        return ImmutableList.of();
+    }
+
+    void markCompiled() {
+        compiled = true;
+    }
+
+    private long getTime(int type) {
+        final BoltContext context = context();
+        return context.getTimeMs(context.indexOf(this), type);
+    }
+
+    /**
+     * 执行开始启动这个节点时调用，记录这个Bolt参与的执行，供其他线程上的回调使用
+     */
+    void bind(BoltContext context) {
+        final Object current = bound;
+        if (current == context || current == SHARED) {
+            return;
+        }
+        synchronized (this) {
+            if (bound == null) {
+                bound = context;
+            } else if (bound != context) {
+                // 不再持有之前执行的结果
+                bound = SHARED;
             }
-        } catch (Throwable completeException) {
-            log.error("###Bolt error happens at completeEvaluate,", e);
-            e = completeException;
-            future.setException(completeException);
         }
+    }
 
-        if (e == null) {
-            try {
-                applySinkBolts();
-            } catch (Throwable t) {
-                log.warn("###Bolt error happens at applySinkBolts()", t);
-            }
+    /**
+     * 生命周期方法中使用当前线程绑定的执行上下文，其他线程上使用最近一次参与的执行
+     */
+    private BoltContext context() {
+        return contextOf(this);
+    }
+
+    /**
+     * 当前线程正在执行的上下文包含 bolt 时使用它，否则使用 bolt 参与的执行
+     */
+    private static BoltContext contextOf(Bolt bolt) {
+        final BoltContext context = BoltContext.current();
+        if (context != null && context.indexOf(bolt) >= 0) {
+            return context;
         }
+        final Object bound = bolt.bound;
+        if (bound == SHARED) {
+            throw new IllegalStateException("Bolt " + bolt.getName() + " has been executed more than once, "
+                    + "its dependencies can only be accessed in evaluate() and other lifecycle methods.");
+        }
+        if (bound == null) {
+            throw new IllegalStateException("Bolt " + bolt.getName() + " has not been executed.");
+        }
+        return (BoltContext) bound;
     }
 
     public static class Builder<T> {
@@ -461,7 +544,12 @@ public abstract class Bolt<O> {
         protected String name;
         protected Map<Enum, Bolt> dependencies;
         protected Set<Enum> optionals;
+        protected Map<Enum, DependencyTimeout> timeouts;
         protected Executor executor;
+        protected Workload workload;
+        protected String bulkhead;
+        protected HedgePolicy hedgePolicy;
+        protected CircuitBreaker circuitBreaker;
         protected List<Bolt> sinkBolts = ImmutableList.of();
 
         public Builder() {
@@ -490,6 +578,61 @@ public abstract class Bolt<O> {
             return this;
         }
 
+        /**
+         * 按负载类型分配executor，{@link #withExecutor(Executor)} 的优先级更高
+         *
+         * @see BoltScheduler
+         */
+        public Builder<T> withWorkload(Workload workload) {
+            checkNotNull(workload, "'workload' must not be null");
+            this.workload = workload;
+            return this;
+        }
+
+        /**
+         * {@link Workload#BLOCKING} 使用的线程池名字，相同名字的Bolt共用一个线程池
+         */
+        public Builder<T> withBulkhead(String bulkhead) {
+            checkArgument(bulkhead != null && !bulkhead.isEmpty(),
+                    "'bulkhead' must be specified.");
+            this.bulkhead = bulkhead;
+            return this;
+        }
+
+        /**
+         * 超过阈值还没完成时再调用一次 {@link Bolt#evaluate()}，先成功的结果生效。
+         * 只对异步的 evaluate 生效，返回已完成future的同步调用不会对冲
+         *
+         * @see HedgePolicy
+         */
+        public Builder<T> withHedging(HedgePolicy hedgePolicy) {
+            checkNotNull(hedgePolicy, "'hedgePolicy' must not be null");
+            this.hedgePolicy = hedgePolicy;
+            return this;
+        }
+
+        /**
+         * 失败或慢调用过多时熔断，熔断期间当前Bolt直接以 {@link java.util.concurrent.RejectedExecutionException} 失败
+         *
+         * @see CircuitBreakerPolicy
+         */
+        public Builder<T> withCircuitBreaker(CircuitBreakerPolicy policy) {
+            checkNotNull(policy, "'policy' must not be null");
+            this.circuitBreaker = new CircuitBreaker(policy, false, null);
+            return this;
+        }
+
+        /**
+         * 失败或慢调用过多时熔断，熔断期间当前Bolt直接以 fallback 作为结果
+         *
+         * @see CircuitBreakerPolicy
+         */
+        public Builder<T> withCircuitBreaker(CircuitBreakerPolicy policy, T fallback) {
+            checkNotNull(policy, "'policy' must not be null");
+            this.circuitBreaker = new CircuitBreaker(policy, true, fallback);
+            return this;
+        }
+
         public Builder<T> withBolt(Class<? extends Bolt<T>> boltClass) {
             return withBolt(createInstance(boltClass));
         }
@@ -523,6 +666,22 @@ public abstract class Bolt<O> {
             return this;
         }
 
+        /**
+         * 有时间预算的依赖：从当前Bolt启动开始计时，依赖超过 timeout 还没有成功时，当前Bolt不再等待，
+         * 通过 {@link Bolt#getDep(Enum)} 拿到的是 fallback，依赖晚到的结果被忽略。依赖失败时同样使用 fallback。
+         * 超时次数记录在 bolt.{name}.timeout.{依赖名}
+         */
+        public <D> Builder<T> dependsOn(Enum name, Bolt<D> dependency, long timeout, TimeUnit unit, D fallback) {
+            checkArgument(timeout > 0, "'timeout' must be positive.");
+            checkNotNull(unit, "time unit cannot be null");
+            dependsOn(name, dependency, false);
+            if (timeouts == null) {
+                timeouts = Maps.newLinkedHashMap();
+            }
+            timeouts.put(name, new DependencyTimeout(unit.toNanos(timeout), fallback));
+            return this;
+        }
+
         public Builder<T> withRequiredDependencies(Pair<Enum, Bolt>... deps) {
             return withDependencies(false, deps);
         }
@@ -569,10 +728,48 @@ public abstract class Bolt<O> {
             checkNotNull(instance, "'Bolt type' must not be null.");
             instance.dependencies = dependencies == null ? ImmutableMap.<Enum, Bolt>of() : ImmutableMap.copyOf(dependencies);
             instance.optionals = optionals == null ? ImmutableSet.<Enum>of() : ImmutableSet.copyOf(optionals);
+            instance.timeouts = timeouts == null ? ImmutableMap.<Enum, DependencyTimeout>of() : ImmutableMap.copyOf(timeouts);
             instance.name = StringUtils.isNotBlank(name) ? name : instance.getClass().getSimpleName();
             instance.sinkBolts = sinkBolts == null ? ImmutableList.<Bolt>of() : ImmutableList.copyOf(sinkBolts);
-            instance.executor = executor == null ? MoreExecutors.sameThreadExecutor() : executor;
+            instance.executor = executor;
+            instance.workload = workload;
+            instance.bulkhead = bulkhead;
+            instance.hedgePolicy = hedgePolicy;
+            instance.circuitBreaker = circuitBreaker;
             return instance;
         }
     }
+
+    /**
+     * 依赖的时间预算和兜底值
+     */
+    static final class DependencyTimeout {
+
+        final long timeoutNanos;
+
+        final Object fallback;
+
+        DependencyTimeout(long timeoutNanos, Object fallback) {
+            this.timeoutNanos = timeoutNanos;
+            this.fallback = fallback;
+        }
+    }
+
+    /**
+     * 熔断策略和兜底值
+     */
+    static final class CircuitBreaker {
+
+        final CircuitBreakerPolicy policy;
+
+        final boolean hasFallback;
+
+        final Object fallback;
+
+        CircuitBreaker(CircuitBreakerPolicy policy, boolean hasFallback, Object fallback) {
+            this.policy = policy;
+            this.hasFallback = hasFallback;
+            this.fallback = fallback;
+        }
+    }
 }
@@ -0,0 +1,164 @@
+package com.yibo.common.bolt;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.yibo.common.monitor.MetricsHolder;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BatchingServiceBolt} 使用的批量合并器，所有并发执行的图共享。
+ * <p>
+ * 第一个key到达时开始计时，窗口结束或攒够最大批量时，把收集到的key（相同的key只保留一个）一次交给
+ * {@link BatchingServiceBolt#loadAll(java.util.Set)}，结果再按key分发给每个等待的Bolt。
+ * <p>
+ * 指标为 bolt.{name}.batch.size（每批key数）和 bolt.{name}.batch.load（批量加载耗时）
+ */
+final class BoltBatcher<K, O> {
+
+    private final BatchingServiceBolt<K, O> loader;
+
+    private final Executor executor;
+
+    private final long windowMillis;
+
+    private final int maxBatchSize;
+
+    private final Histogram size;
+
+    private final Timer load;
+
+    private final Object lock = new Object();
+
+    /**
+     * key -> 等待该key的Bolt，受 lock 保护
+     */
+    private Map<K, List<SettableFuture<O>>> pending = new LinkedHashMap<>();
+
+    private ScheduledFuture<?> flushTask;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            final Map<K, List<SettableFuture<O>>> batch;
+            synchronized (lock) {
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                flushTask = null;
+            }
+            dispatch(batch);
+        }
+    };
+
+    BoltBatcher(BatchingServiceBolt<K, O> loader, String name, Executor executor, long windowMillis, int maxBatchSize) {
+        this.loader = loader;
+        this.executor = executor;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.size = MetricsHolder.histogram(MetricRegistry.name(BoltMetrics.PREFIX, name, "batch", "size"));
+        this.load = MetricsHolder.timer(MetricRegistry.name(BoltMetrics.PREFIX, name, "batch", "load"));
+    }
+
+    /**
+     * @return 调用方独立的结果future，取消它不会影响同一批次的其它Bolt
+     */
+    ListenableFuture<O> add(K key) {
+        final SettableFuture<O> future = SettableFuture.create();
+        Map<K, List<SettableFuture<O>>> full = null;
+        synchronized (lock) {
+            List<SettableFuture<O>> waiters = pending.get(key);
+            if (waiters == null) {
+                waiters = Lists.newArrayListWithCapacity(1);
+                pending.put(key, waiters);
+            }
+            waiters.add(future);
+            if (pending.size() >= maxBatchSize) {
+                full = pending;
+                pending = new LinkedHashMap<>();
+                if (flushTask != null) {
+                    flushTask.cancel(false);
+                    flushTask = null;
+                }
+            } else if (flushTask == null) {
+                flushTask = BoltContext.schedule(flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    /**
+     * 批量加载可能阻塞，不能占用定时线程，统一提交到Bolt的阻塞线程池
+     */
+    private void dispatch(final Map<K, List<SettableFuture<O>>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loadAll(batch);
+                }
+            });
+        } catch (Throwable t) {
+            fail(batch, t);
+        }
+    }
+
+    private void loadAll(final Map<K, List<SettableFuture<O>>> batch) {
+        size.update(batch.size());
+        final long start = System.nanoTime();
+        final ListenableFuture<Map<K, O>> future;
+        try {
+            future = loader.loadAll(ImmutableSet.copyOf(batch.keySet()));
+            if (future == null) {
+                throw new NullPointerException(String.format("Bolt %s loadAll() returned null Future object!", loader.getName()));
+            }
+        } catch (Throwable t) {
+            load.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            fail(batch, t);
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<Map<K, O>>() {
+            @Override
+            public void onSuccess(Map<K, O> result) {
+                load.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                for (Map.Entry<K, List<SettableFuture<O>>> item : batch.entrySet()) {
+                    final O value = result == null ? null : result.get(item.getKey());
+                    for (SettableFuture<O> waiter : item.getValue()) {
+                        waiter.set(value);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                load.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                fail(batch, t);
+            }
+        });
+    }
+
+    private static <K, O> void fail(Map<K, List<SettableFuture<O>>> batch, Throwable t) {
+        for (List<SettableFuture<O>> waiters : batch.values()) {
+            for (SettableFuture<O> waiter : waiters) {
+                waiter.setException(t);
+            }
+        }
+    }
+}
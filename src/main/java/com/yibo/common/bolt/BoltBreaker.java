@@ -0,0 +1,254 @@
+package com.yibo.common.bolt;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.yibo.common.monitor.MetricsHolder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bolt的熔断状态，策略见 {@link CircuitBreakerPolicy}。
+ * <p>
+ * 关闭状态下判断只读一个volatile字段；调用结果按次数记入环形窗口，窗口和状态转换在当前对象的锁内完成。
+ * 每次状态转换都会增加代数，调用按放行时的代数记录结果，关闭时放行、探测开始后才结束的调用不算探测结果。
+ * <p>
+ * 指标（Bolt没有稳定名字时不记录）:
+ * <ul>
+ * <li>bolt.{name}.circuit.state: 0 关闭，1 熔断，2 探测</li>
+ * <li>bolt.{name}.circuit.opened/half_opened/closed: 状态转换</li>
+ * <li>bolt.{name}.circuit.short_circuited: 熔断期间直接失败的调用</li>
+ * </ul>
+ */
+final class BoltBreaker {
+
+    static final int CLOSED = 0;
+    static final int OPEN = 1;
+    static final int HALF_OPEN = 2;
+
+    private static final byte SUCCESS = 1;
+    private static final byte FAILURE = 2;
+    private static final byte SLOW = 4;
+
+    /**
+     * {@link #tryAcquire()} 没有放行
+     */
+    static final long REJECTED = -1;
+
+    private static final ConcurrentMap<String, BoltBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final CircuitBreakerPolicy policy;
+
+    /**
+     * 代数 << 2 | 状态，两者一起读写
+     */
+    private volatile long status = CLOSED;
+
+    private volatile long openedNanos;
+
+    /**
+     * 探测状态下剩余可以放行的调用
+     */
+    private final AtomicInteger permits = new AtomicInteger();
+
+    /**
+     * 以下状态只在当前对象的锁内读写
+     */
+    private final byte[] window;
+
+    private int position;
+
+    private int calls;
+
+    private int failures;
+
+    private int slows;
+
+    private final Meter opened;
+
+    private final Meter halfOpened;
+
+    private final Meter closed;
+
+    private final Meter shortCircuited;
+
+    private BoltBreaker(String name, CircuitBreakerPolicy policy) {
+        this.policy = policy;
+        this.window = new byte[policy.getWindowSize()];
+        if (name == null) {
+            this.opened = new Meter();
+            this.halfOpened = new Meter();
+            this.closed = new Meter();
+            this.shortCircuited = new Meter();
+            return;
+        }
+        this.opened = MetricsHolder.meter(MetricRegistry.name(BoltMetrics.PREFIX, name, "circuit", "opened"));
+        this.halfOpened = MetricsHolder.meter(MetricRegistry.name(BoltMetrics.PREFIX, name, "circuit", "half_opened"));
+        this.closed = MetricsHolder.meter(MetricRegistry.name(BoltMetrics.PREFIX, name, "circuit", "closed"));
+        this.shortCircuited = MetricsHolder.meter(MetricRegistry.name(BoltMetrics.PREFIX, name, "circuit", "short_circuited"));
+        MetricsHolder.getMetricRegistry().gauge(MetricRegistry.name(BoltMetrics.PREFIX, name, "circuit", "state"),
+                () -> (Gauge<Integer>) this::getState);
+    }
+
+    /**
+     * 监控名相同的Bolt共享同一个熔断状态，熔断策略必须相同
+     *
+     * @return 没有设置熔断时返回null
+     * @throws IllegalArgumentException 同一个监控名已经按不同的策略创建了熔断状态
+     */
+    static BoltBreaker of(Bolt<?> bolt) {
+        final Bolt.CircuitBreaker config = bolt.circuitBreaker();
+        if (config == null) {
+            return null;
+        }
+        final String name = bolt.metricName();
+        if (name == null) {
+            return new BoltBreaker(null, config.policy);
+        }
+        BoltBreaker breaker = BREAKERS.get(name);
+        if (breaker == null) {
+            breaker = BREAKERS.computeIfAbsent(name, key -> new BoltBreaker(key, config.policy));
+        }
+        checkArgument(breaker.policy.equals(config.policy),
+                "Bolt %s already has a circuit breaker with a different policy.", name);
+        return breaker;
+    }
+
+    int getState() {
+        return stateOf(status);
+    }
+
+    private static int stateOf(long status) {
+        return (int) (status & 3);
+    }
+
+    /**
+     * @return 放行时的状态，交给 {@link #record(long, long, boolean)} 或 {@link #release(long)}；
+     * {@link #REJECTED} 表示处于熔断中，调用方不能执行
+     */
+    long tryAcquire() {
+        long current = status;
+        if (stateOf(current) == CLOSED) {
+            return current;
+        }
+        if (stateOf(current) == OPEN) {
+            if (System.nanoTime() - openedNanos < policy.getOpenNanos()) {
+                shortCircuited.mark();
+                return REJECTED;
+            }
+            synchronized (this) {
+                if (stateOf(status) == OPEN && System.nanoTime() - openedNanos >= policy.getOpenNanos()) {
+                    transition(HALF_OPEN);
+                }
+                current = status;
+            }
+            if (stateOf(current) == CLOSED) {
+                return current;
+            }
+        }
+        while (true) {
+            final int remaining = permits.get();
+            current = status;
+            if (remaining <= 0 || stateOf(current) != HALF_OPEN) {
+                shortCircuited.mark();
+                return REJECTED;
+            }
+            if (permits.compareAndSet(remaining, remaining - 1)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * 放行了但没有真正执行的调用，归还本轮探测的名额
+     *
+     * @param admitted {@link #tryAcquire()} 的返回值
+     */
+    void release(long admitted) {
+        if (stateOf(admitted) == HALF_OPEN && admitted == status) {
+            permits.incrementAndGet();
+        }
+    }
+
+    /**
+     * 记录一次执行的结果，放行之后状态已经转换过的调用不影响当前状态
+     *
+     * @param admitted {@link #tryAcquire()} 的返回值
+     * @param nanos    从开始执行到结果就绪的耗时
+     * @param failed   是否失败
+     */
+    synchronized void record(long admitted, long nanos, boolean failed) {
+        if (admitted != status) {
+            return;
+        }
+        final byte outcome = (byte) ((failed ? FAILURE : SUCCESS) | (policy.isSlow(nanos) ? SLOW : 0));
+        final byte previous = window[position];
+        if (previous != 0) {
+            failures -= (previous & FAILURE) == 0 ? 0 : 1;
+            slows -= (previous & SLOW) == 0 ? 0 : 1;
+        } else {
+            calls++;
+        }
+        window[position] = outcome;
+        failures += (outcome & FAILURE) == 0 ? 0 : 1;
+        slows += (outcome & SLOW) == 0 ? 0 : 1;
+        position = (position + 1) % window.length;
+
+        if (stateOf(admitted) == HALF_OPEN) {
+            // 探测状态下窗口只记录探测调用
+            if (calls >= Math.min(policy.getHalfOpenCalls(), window.length)) {
+                transition(policy.isExceeded(calls, failures, slows) ? OPEN : CLOSED);
+            }
+        } else if (calls >= policy.getMinimumCalls() && policy.isExceeded(calls, failures, slows)) {
+            transition(OPEN);
+        }
+    }
+
+    private void transition(int next) {
+        position = 0;
+        calls = 0;
+        failures = 0;
+        slows = 0;
+        for (int i = 0; i < window.length; i++) {
+            window[i] = 0;
+        }
+        switch (next) {
+            case OPEN:
+                openedNanos = System.nanoTime();
+                opened.mark();
+                break;
+            case HALF_OPEN:
+                permits.set(policy.getHalfOpenCalls());
+                halfOpened.mark();
+                break;
+            default:
+                closed.mark();
+                break;
+        }
+        status = ((status >>> 2) + 1) << 2 | next;
+    }
+
+    /**
+     * @return 熔断时节点的失败原因，不收集调用栈
+     */
+    RejectedExecutionException rejected(String boltName) {
+        return new Open(String.format("Bolt %s short-circuited by open circuit breaker", boltName));
+    }
+
+    private static final class Open extends RejectedExecutionException {
+
+        Open(String message) {
+            super(message);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
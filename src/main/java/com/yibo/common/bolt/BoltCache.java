@@ -0,0 +1,155 @@
+package com.yibo.common.bolt;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.yibo.common.monitor.MetricsHolder;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * {@link CachedServiceBolt} 使用的跨请求缓存。
+ * <p>
+ * 缓存的是加载结果的future，同一个key并发未命中时只会有一次加载（single-flight），加载失败的结果会被立即移除。
+ * 配置了刷新时间时，超过刷新时间的值会先返回旧值，同时在后台异步加载新值。
+ * <p>
+ * 指标为 bolt.{name}.cache.{hit|miss|eviction|load}
+ */
+final class BoltCache<K, O> {
+
+    private final LoadingCache<K, ListenableFuture<O>> cache;
+
+    private final Counter hit;
+
+    private final Counter miss;
+
+    private final Counter eviction;
+
+    private final Timer load;
+
+    BoltCache(final CachedServiceBolt<K, O> loader, String name, long maximumSize, long ttlMillis, long refreshMillis) {
+        this.hit = MetricsHolder.counter(MetricRegistry.name(BoltMetrics.PREFIX, name, "cache", "hit"));
+        this.miss = MetricsHolder.counter(MetricRegistry.name(BoltMetrics.PREFIX, name, "cache", "miss"));
+        this.eviction = MetricsHolder.counter(MetricRegistry.name(BoltMetrics.PREFIX, name, "cache", "eviction"));
+        this.load = MetricsHolder.timer(MetricRegistry.name(BoltMetrics.PREFIX, name, "cache", "load"));
+
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS);
+        if (refreshMillis > 0) {
+            builder = builder.refreshAfterWrite(refreshMillis, TimeUnit.MILLISECONDS);
+        }
+        this.cache = builder
+                .removalListener(new RemovalListener<K, ListenableFuture<O>>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<K, ListenableFuture<O>> notification) {
+                        if (notification.wasEvicted()) {
+                            eviction.inc();
+                        }
+                    }
+                })
+                .build(new CacheLoader<K, ListenableFuture<O>>() {
+                    @Override
+                    public ListenableFuture<O> load(K key) throws Exception {
+                        return startLoad(loader, key, true);
+                    }
+
+                    @Override
+                    public ListenableFuture<ListenableFuture<O>> reload(K key, ListenableFuture<O> oldValue) throws Exception {
+                        // 新值加载成功后才替换，失败时保留旧值
+                        return Futures.transform(startLoad(loader, key, false), new Function<O, ListenableFuture<O>>() {
+                            @Override
+                            public ListenableFuture<O> apply(O input) {
+                                return Futures.immediateFuture(input);
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * @return 调用方独立的结果future，取消它不会影响缓存中共享的加载
+     */
+    ListenableFuture<O> get(K key) throws Exception {
+        ListenableFuture<O> future = cache.getIfPresent(key);
+        if (future != null) {
+            hit.inc();
+        } else {
+            miss.inc();
+            try {
+                future = cache.get(key);
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            // load() 返回已经失败的future时，移除的回调在写入缓存之前就执行了，写入之后再检查一次
+            if (future.isDone() && isFailed(future)) {
+                cache.asMap().remove(key, future);
+            }
+        }
+        return copyOf(future);
+    }
+
+    private ListenableFuture<O> startLoad(CachedServiceBolt<K, O> loader, final K key, final boolean evictOnFailure)
+            throws Exception {
+        final long start = System.nanoTime();
+        final ListenableFuture<O> future = loader.load(key);
+        if (future == null) {
+            throw new NullPointerException(String.format("Bolt %s load() returned null Future object!", loader.getName()));
+        }
+        Futures.addCallback(future, new FutureCallback<O>() {
+            @Override
+            public void onSuccess(O result) {
+                load.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                load.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (evictOnFailure) {
+                    cache.asMap().remove(key, future);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return future;
+    }
+
+    private static boolean isFailed(ListenableFuture<?> done) {
+        try {
+            getUninterruptibly(done);
+            return false;
+        } catch (ExecutionException | RuntimeException e) {
+            return true;
+        }
+    }
+
+    private static <O> ListenableFuture<O> copyOf(ListenableFuture<O> shared) {
+        final SettableFuture<O> copy = SettableFuture.create();
+        Futures.addCallback(shared, new FutureCallback<O>() {
+            @Override
+            public void onSuccess(O result) {
+                copy.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                copy.setException(t);
+            }
+        });
+        return copy;
+    }
+}
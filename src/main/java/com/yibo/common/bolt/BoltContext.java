@@ -0,0 +1,1070 @@
+package com.yibo.common.bolt;
+
+import brave.propagation.TraceContext;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yibo.common.monitor.BMonitor;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.collect.Lists.newArrayListWithExpectedSize;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * 一次图执行的上下文。
+ * <p>
+ * {@link BoltPlan} 只描述结构，所有执行状态（结果future、耗时、附件）都保存在这里按节点下标排列的槽位中，
+ * 执行结束后整体丢弃。Bolt 本身作为模板可以被多次、并发地执行。
+ * <p>
+ * 节点生命周期方法（{@link Bolt#evaluate()} 等）被调用时，当前上下文和节点下标会绑定在线程的 {@link Frame} 上，
+ * {@link Bolt#getDep(Enum)} 等方法通过它找到本次执行的槽位，不在生命周期方法中时使用 {@link Bolt#bind(BoltContext)} 记录的执行。
+ */
+final class BoltContext {
+
+    private static final ThreadLocal<Frame> FRAME = new ThreadLocal<Frame>() {
+        @Override
+        protected Frame initialValue() {
+            return new Frame();
+        }
+    };
+
+    /**
+     * 结果为null的节点共用的已完成future
+     */
+    private static final ListenableFuture<Object> NULL = Futures.immediateFuture(null);
+
+    static final int START = 0;
+    static final int READY = 1;
+    static final int EVALUATE_START = 2;
+    static final int EVALUATE_STOP = 3;
+    static final int STOP = 4;
+    private static final int TIMINGS = 5;
+
+    private final BoltPlan plan;
+
+    private final Object input;
+
+    /**
+     * 节点的结果。有人等待时是 {@link SettableFuture}，节点在被等待之前就完成时直接放入已完成的future
+     */
+    private final AtomicReferenceArray<ListenableFuture<Object>> futures;
+
+    private final AtomicIntegerArray started;
+
+    /**
+     * 有时间预算的依赖按预算包装后的结果，由依赖方启动时写入，见 {@link BoltPlan.Timed}
+     */
+    private final ListenableFuture<Object>[] timed;
+
+    /**
+     * 每个节点5个时间点(nanoTime)，由执行节点的线程写入，读取方通过节点future的完成保证可见性
+     */
+    private final long[] timings;
+
+    /**
+     * 用来把nanoTime换算成毫秒时间戳
+     */
+    private final long createdMillis;
+
+    private final long createdNanos;
+
+    private final Object[] attachments;
+
+    /**
+     * 调用方被采样的span，不需要追踪时为null，见 {@link BoltTracing}
+     */
+    private final TraceContext traceContext;
+
+    /**
+     * 本次执行的JFR事件，没有打开或者没有在录制时为null，见 {@link BoltJfr}
+     */
+    private final BoltJfrEvents events;
+
+    /**
+     * 绝对的截止时间(nanoTime)，没有截止时间时为 {@link Long#MAX_VALUE}
+     */
+    private final long deadlineNanos;
+
+    /**
+     * 正在同步执行 {@link Bolt#evaluate()} 的线程，取消时中断；读写都在当前对象的锁内
+     */
+    private final Thread[] running;
+
+    /**
+     * 执行过 {@link Bolt#evaluate()} 的线程，执行结束后保留，供飞行记录器读取
+     */
+    private final Thread[] threads;
+
+    /**
+     * {@link Bolt#evaluate()} 返回的、可能还没完成的future，取消时一起取消；读写都在当前对象的锁内
+     */
+    private final ListenableFuture[] inflight;
+
+    /**
+     * 节点被熔断放行时的状态，见 {@link BoltBreaker#tryAcquire()}
+     */
+    private final long[] admitted;
+
+    private volatile boolean completed = false;
+
+    private boolean cancelled = false;
+
+    /**
+     * @param name 图的名字，单独执行Bolt时为Bolt的名字，用于JFR事件
+     */
+    BoltContext(BoltPlan plan, String name, Object input) {
+        this(plan, name, input, Long.MAX_VALUE);
+    }
+
+    BoltContext(BoltPlan plan, String name, Object input, long deadlineNanos) {
+        this.plan = plan;
+        this.input = input;
+        this.deadlineNanos = deadlineNanos;
+        this.running = new Thread[plan.size()];
+        this.threads = new Thread[plan.size()];
+        this.inflight = new ListenableFuture[plan.size()];
+        this.admitted = new long[plan.size()];
+        this.futures = new AtomicReferenceArray<>(plan.size());
+        this.started = new AtomicIntegerArray(plan.size());
+        this.timed = new ListenableFuture[plan.timedSlots()];
+        this.timings = new long[plan.size() * TIMINGS];
+        this.attachments = new Object[plan.size()];
+        this.traceContext = BoltTracing.capture();
+        this.events = BoltJfr.isActive() ? new BoltJfrEvents(name, plan.size()) : null;
+        this.createdMillis = System.currentTimeMillis();
+        this.createdNanos = System.nanoTime();
+    }
+
+    /**
+     * @return 当前线程正在执行的上下文，不在Bolt生命周期方法中时为 null
+     */
+    static BoltContext current() {
+        return FRAME.get().context;
+    }
+
+    /**
+     * 从根节点开始执行
+     */
+    <O> ListenableFuture<O> start() {
+        final ListenableFuture<Object> root = activate(plan.root());
+        if (plan.streams().length > 0) {
+            root.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    cancelStreams();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+        if (events != null) {
+            root.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    events.graphCompleted(failureOf(root));
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+        return (ListenableFuture<O>) root;
+    }
+
+    /**
+     * 启动节点及其依赖闭包，已启动的节点直接返回结果future
+     */
+    ListenableFuture<Object> activate(int index) {
+        for (int i : plan.node(index).activation) {
+            run(i);
+        }
+        return future(index);
+    }
+
+    ListenableFuture<Object> activate(Bolt bolt) {
+        final int index = plan.indexOf(bolt);
+        if (index < 0) {
+            throw new IllegalStateException("Bolt " + bolt.getName() + " is not part of this graph.");
+        }
+        return activate(index);
+    }
+
+    boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * 设置终止状态，尚未开始执行的节点会直接跳过
+     */
+    void complete() {
+        this.completed = true;
+    }
+
+    /**
+     * 取消本次执行：设置终止状态，根节点依赖闭包中还没完成的节点以 cause 失败，
+     * 中断正在执行 {@link Bolt#evaluate()} 的线程，并取消 evaluate 返回的future。
+     * sink 节点不受影响。
+     *
+     * @param cause 根节点的失败原因
+     */
+    void cancel(Throwable cause) {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            completed = true;
+        }
+
+        // 先让根节点和未完成的节点以同一个 cause 失败，保证调用方拿到的是 cause，而不是中断引起的异常
+        fail(plan.root(), cause);
+        for (int i = 0; i < plan.size(); i++) {
+            if (plan.isMainline(i) && isStarted(i)) {
+                fail(i, cause);
+            }
+        }
+
+        final List<ListenableFuture> toCancel = newArrayListWithExpectedSize(plan.size());
+        synchronized (this) {
+            for (int i = 0; i < running.length; i++) {
+                if (!plan.isMainline(i)) {
+                    continue;
+                }
+                if (running[i] != null) {
+                    running[i].interrupt();
+                }
+                if (inflight[i] != null) {
+                    toCancel.add(inflight[i]);
+                    inflight[i] = null;
+                }
+            }
+        }
+        for (ListenableFuture future : toCancel) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * 根节点完成（包括失败、被取消）后，主线上的流不会再有新的消费者：超时、依赖失败跳过了消费者、
+     * 没有走到的分支都会留下没人读取的流，取消它们，否则生产者会一直等待缓冲区空间
+     */
+    private void cancelStreams() {
+        for (int i : plan.streams()) {
+            final ListenableFuture<Object> future = futures.get(i);
+            if (future == null || !future.isDone()) {
+                continue;
+            }
+            final Object stream;
+            try {
+                stream = getUninterruptibly(future);
+            } catch (Throwable e) {
+                continue;
+            }
+            if (stream instanceof BoltStream) {
+                ((BoltStream<?>) stream).cancelIfUnconsumed();
+            }
+        }
+    }
+
+    /**
+     * @return 距离截止时间的剩余时间，没有截止时间时为 {@link Long#MAX_VALUE}
+     */
+    long getRemainingTime(TimeUnit unit) {
+        if (deadlineNanos == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return unit.convert(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 在共享的定时线程上延迟执行任务，所有图共用这一个线程，任务只能做提交任务、设置标记之类很轻的操作
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return Timer.INSTANCE.schedule(task, delay, unit);
+    }
+
+    /**
+     * 延迟执行任务，定时线程到期后只把任务提交到 {@link Timer#CALLBACKS}。
+     * 用于取消执行、完成结果这类会触发下游节点和用户回调的工作，避免一个慢的回调拖住其他图的截止时间
+     */
+    static ScheduledFuture<?> scheduleAsync(final Runnable task, long delay, TimeUnit unit) {
+        return Timer.INSTANCE.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Timer.CALLBACKS.execute(task);
+            }
+        }, delay, unit);
+    }
+
+    Object getInput() {
+        return input;
+    }
+
+    BoltPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * 当前线程正在执行的节点下标，bolt 不是当前节点时退化为按实例查找
+     */
+    int indexOf(Bolt bolt) {
+        final Frame frame = FRAME.get();
+        if (frame.context == this && frame.index >= 0 && plan.node(frame.index).bolt == bolt) {
+            return frame.index;
+        }
+        return plan.indexOf(bolt);
+    }
+
+    /**
+     * @return bolt 的依赖 name 在本次执行中的结果，有时间预算的依赖返回按预算包装后的结果
+     */
+    ListenableFuture<Object> dependency(Bolt bolt, Enum name) {
+        final int index = indexOf(bolt);
+        if (index < 0) {
+            throw new IllegalStateException("Bolt " + bolt.getName() + " is not part of this graph.");
+        }
+        final BoltPlan.Node node = plan.node(index);
+        final Integer dep = node.dependencies.get(name);
+        if (dep == null) {
+            throw new NullPointerException(String.format("dependency '%s' not initiated.", name));
+        }
+        for (BoltPlan.Timed item : node.timed) {
+            if (item.name == name && timed[item.slot] != null) {
+                return timed[item.slot];
+            }
+        }
+        return future(dep);
+    }
+
+    boolean isStarted(int index) {
+        return started.get(index) != 0;
+    }
+
+    /**
+     * 上下文创建的时间，即图开始执行的时间
+     */
+    long getCreatedNanos() {
+        return createdNanos;
+    }
+
+    /**
+     * 上下文创建时的毫秒时间戳
+     */
+    long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    long getNanos(int index, int type) {
+        return timings[index * TIMINGS + type];
+    }
+
+    /**
+     * @return 毫秒时间戳，还没有到达这个时间点时返回0
+     */
+    long getTimeMs(int index, int type) {
+        final long nanos = timings[index * TIMINGS + type];
+        return nanos == 0 ? 0 : createdMillis + TimeUnit.NANOSECONDS.toMillis(nanos - createdNanos);
+    }
+
+    /**
+     * @return 节点span的父节点，本次执行不需要追踪时返回null
+     */
+    TraceContext getTraceContext() {
+        return traceContext;
+    }
+
+    /**
+     * @return 执行过节点的线程，没有执行过时为null
+     */
+    synchronized Thread getThread(int index) {
+        return threads[index];
+    }
+
+    /**
+     * @return 节点失败的原因，没有完成或者成功时为null
+     */
+    Throwable getFailure(int index) {
+        final ListenableFuture<Object> future = futures.get(index);
+        return future == null || !future.isDone() ? null : failureOf(future);
+    }
+
+    Object getAttachment(int index) {
+        final BoltHedger.Attempts hedge = hedgeOf(index);
+        return hedge != null ? hedge.attachment : attachments[index];
+    }
+
+    void setAttachment(int index, Object attachment) {
+        final BoltHedger.Attempts hedge = hedgeOf(index);
+        if (hedge != null) {
+            hedge.attachment = attachment;
+        } else {
+            attachments[index] = attachment;
+        }
+    }
+
+    /**
+     * @return 当前线程正在执行的对冲调用，不在对冲调用中时为null
+     */
+    private BoltHedger.Attempts hedgeOf(int index) {
+        final Frame frame = FRAME.get();
+        return frame.context == this && frame.index == index ? frame.hedge : null;
+    }
+
+    ListenableFuture<Object> future(int index) {
+        ListenableFuture<Object> future = futures.get(index);
+        if (future == null) {
+            futures.compareAndSet(index, null, SettableFuture.<Object>create());
+            future = futures.get(index);
+        }
+        return future;
+    }
+
+    /**
+     * 设置节点结果，重复设置时忽略。还没有人等待这个节点时直接把已完成的future放进槽位，不再创建 {@link SettableFuture}
+     *
+     * @param done   已经成功完成、可以直接作为结果的future，没有时为null
+     * @param result 结果
+     * @param e      失败原因，成功时为null
+     */
+    private void settle(int index, ListenableFuture<Object> done, Object result, Throwable e) {
+        ListenableFuture<Object> future = futures.get(index);
+        if (future == null) {
+            if (done == null) {
+                done = e != null ? Futures.immediateFailedFuture(e) : result == null ? NULL : Futures.immediateFuture(result);
+            }
+            if (futures.compareAndSet(index, null, done)) {
+                return;
+            }
+            future = futures.get(index);
+        }
+        if (future instanceof SettableFuture) {
+            if (e != null) {
+                ((SettableFuture<Object>) future).setException(e);
+            } else {
+                ((SettableFuture<Object>) future).set(result);
+            }
+        }
+    }
+
+    Object emit(int index) throws Exception {
+        return emit(future(index));
+    }
+
+    Object emit(int index, long timeout, TimeUnit unit) throws Exception {
+        return emit(future(index), timeout, unit);
+    }
+
+    Object emit(ListenableFuture<Object> future) throws Exception {
+        try {
+            return getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    Object emit(ListenableFuture<Object> future, long timeout, TimeUnit unit) throws Exception {
+        try {
+            return getUninterruptibly(future, timeout, unit);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Error) {
+            return new RuntimeException(cause);
+        }
+        return (Exception) cause;
+    }
+
+    private void run(final int index) {
+        if (!started.compareAndSet(index, 0, 1)) {
+            return;
+        }
+        final BoltPlan.Node node = plan.node(index);
+        timings[index * TIMINGS + START] = System.nanoTime();
+        node.bolt.bind(this);
+
+        try {
+            if (node.timed.length > 0) {
+                startTimed(node);
+            }
+            // 依赖按拓扑序先启动，同步完成的很常见，这时不再组合future、注册回调，直接执行
+            if (isDone(node.required) && isDone(node.optional) && isDone(node.timed)) {
+                final Throwable failure = failureOf(node.required);
+                if (failure != null) {
+                    timings[index * TIMINGS + STOP] = System.nanoTime();
+                    settle(index, null, null, failure);
+                } else {
+                    ready(node, null);
+                }
+                return;
+            }
+
+            final ListenableFuture<?> ready = dependenciesOf(node);
+            ready.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    ready(node, ready);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        } catch (Throwable e) {
+            timings[index * TIMINGS + STOP] = System.nanoTime();
+            settle(index, null, null, e);
+        }
+    }
+
+    /**
+     * 先在完成依赖的线程上记录就绪时间，再提交到节点的executor，两者之差即排队时间
+     *
+     * @param ready 依赖的组合future，依赖在启动时就已完成时为null
+     */
+    private void ready(final BoltPlan.Node node, final ListenableFuture<?> ready) {
+        final int index = node.index;
+        timings[index * TIMINGS + READY] = System.nanoTime();
+        if (node.breaker != null && (admitted[index] = node.breaker.tryAcquire()) == BoltBreaker.REJECTED) {
+            timings[index * TIMINGS + STOP] = System.nanoTime();
+            final Bolt.CircuitBreaker config = node.bolt.circuitBreaker();
+            if (events != null) {
+                events.aborted(node, "circuit open");
+            }
+            if (config.hasFallback) {
+                settle(index, config.fallback == null ? NULL : Futures.immediateFuture(config.fallback), config.fallback, null);
+            } else {
+                settle(index, null, null, node.breaker.rejected(node.name));
+            }
+            return;
+        }
+        if (node.limiter != null && !node.limiter.tryAcquire()) {
+            timings[index * TIMINGS + STOP] = System.nanoTime();
+            if (node.breaker != null) {
+                node.breaker.release(admitted[index]);
+            }
+            if (events != null) {
+                events.aborted(node, "concurrency limit");
+            }
+            settle(index, null, null, node.limiter.rejected(node.name));
+            return;
+        }
+        if (node.direct) {
+            evaluate(node, ready);
+            return;
+        }
+        if (events != null) {
+            events.queued(node);
+        }
+        try {
+            node.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    evaluate(node, ready);
+                }
+            });
+        } catch (Throwable e) {
+            timings[index * TIMINGS + STOP] = System.nanoTime();
+            release(node, null);
+            settle(index, null, null, e);
+        }
+    }
+
+    /**
+     * 归还 {@link #ready(BoltPlan.Node, ListenableFuture)} 中拿到的并发名额和熔断探测名额，记录执行结果。
+     * 没有开始执行的节点不参与并发限制的调整，也不计入熔断统计；因图结束被取消的执行不算失败
+     *
+     * @param e 执行失败的原因
+     */
+    private void release(BoltPlan.Node node, Throwable e) {
+        if (node.limiter == null && node.breaker == null) {
+            return;
+        }
+        final long evaluateStart = timings[node.index * TIMINGS + EVALUATE_START];
+        final long stop = timings[node.index * TIMINGS + STOP];
+        if (node.limiter != null) {
+            node.limiter.release(evaluateStart == 0 ? 0 : stop - timings[node.index * TIMINGS + READY], e);
+        }
+        if (node.breaker != null) {
+            if (evaluateStart == 0) {
+                node.breaker.release(admitted[node.index]);
+            } else {
+                node.breaker.record(admitted[node.index], stop - evaluateStart, e != null && !(e instanceof CancellationException));
+            }
+        }
+    }
+
+    private boolean isDone(int[] indexes) {
+        for (int i : indexes) {
+            final ListenableFuture<Object> future = futures.get(i);
+            if (future == null || !future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isDone(BoltPlan.Timed[] items) {
+        for (BoltPlan.Timed item : items) {
+            if (!timed[item.slot].isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 已完成的依赖中第一个失败的原因，都成功时为null
+     */
+    private Throwable failureOf(int[] indexes) {
+        for (int i : indexes) {
+            final Throwable failure = failureOf(futures.get(i));
+            if (failure != null) {
+                return failure;
+            }
+        }
+        return null;
+    }
+
+    private static Throwable failureOf(ListenableFuture<Object> done) {
+        try {
+            getUninterruptibly(done);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (Throwable e) {
+            return e;
+        }
+    }
+
+    /**
+     * 从节点启动开始计时，为每个有时间预算的依赖生成包装后的结果：依赖按时成功时为依赖的结果，
+     * 超时或者失败时为兜底值，晚到的结果被忽略
+     */
+    private void startTimed(BoltPlan.Node node) {
+        for (final BoltPlan.Timed item : node.timed) {
+            final ListenableFuture<Object> dependency = future(item.dependency);
+            if (dependency.isDone()) {
+                timed[item.slot] = failureOf(dependency) == null ? dependency : Futures.immediateFuture(item.fallback);
+                continue;
+            }
+            final SettableFuture<Object> view = SettableFuture.create();
+            // 设置兜底值会在当前线程上执行依赖方和它的下游，不能在共享的定时线程上执行
+            final ScheduledFuture<?> timer = scheduleAsync(new Runnable() {
+                @Override
+                public void run() {
+                    // 先计数再设置，设置时依赖方可能直接执行完整个图
+                    item.timeouts.inc();
+                    if (!view.set(item.fallback)) {
+                        item.timeouts.dec();
+                    }
+                }
+            }, item.timeoutNanos, TimeUnit.NANOSECONDS);
+            Futures.addCallback(dependency, new FutureCallback<Object>() {
+                @Override
+                public void onSuccess(Object result) {
+                    timer.cancel(false);
+                    view.set(result);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    timer.cancel(false);
+                    view.set(item.fallback);
+                }
+            });
+            timed[item.slot] = view;
+        }
+    }
+
+    /**
+     * 必须依赖全部成功，可选依赖全部结束（不论成败）后，节点才可以执行
+     */
+    private ListenableFuture<?> dependenciesOf(BoltPlan.Node node) {
+        final ListenableFuture<?> required = node.required.length == 0 ? null : Futures.allAsList(futures(node.required));
+        // optional的不要影响主流程，有时间预算的依赖不会失败
+        final ListenableFuture<?> optional = node.optional.length + node.timed.length == 0 ? null
+                : Futures.successfulAsList(optionalFutures(node));
+        if (required == null) {
+            return optional;
+        }
+        if (optional == null) {
+            return required;
+        }
+        return Futures.allAsList(required, optional);
+    }
+
+    private List<ListenableFuture<Object>> futures(int[] indexes) {
+        final List<ListenableFuture<Object>> list = newArrayListWithExpectedSize(indexes.length);
+        for (int i : indexes) {
+            list.add(future(i));
+        }
+        return list;
+    }
+
+    private List<ListenableFuture<Object>> optionalFutures(BoltPlan.Node node) {
+        final List<ListenableFuture<Object>> list = newArrayListWithExpectedSize(node.optional.length + node.timed.length);
+        for (int i : node.optional) {
+            list.add(future(i));
+        }
+        for (BoltPlan.Timed item : node.timed) {
+            list.add(timed[item.slot]);
+        }
+        return list;
+    }
+
+    private void fail(int index, Throwable cause) {
+        final ListenableFuture<Object> future = futures.get(index);
+        if (future == null || !future.isDone()) {
+            timings[index * TIMINGS + STOP] = System.nanoTime();
+            settle(index, null, null, cause);
+        }
+    }
+
+    /**
+     * 登记当前线程正在执行节点，被取消时返回false
+     */
+    private synchronized boolean enter(int index) {
+        if (cancelled) {
+            return false;
+        }
+        running[index] = Thread.currentThread();
+        threads[index] = running[index];
+        return true;
+    }
+
+    /**
+     * 注销正在执行的线程，如果期间被取消，清理掉中断标记并取消evaluate返回的future
+     */
+    private void exit(int index, ListenableFuture val) {
+        final boolean cancelledInEvaluate;
+        synchronized (this) {
+            running[index] = null;
+            cancelledInEvaluate = cancelled;
+            if (!cancelled && val != null && !val.isDone()) {
+                inflight[index] = val;
+            }
+        }
+        if (cancelledInEvaluate) {
+            Thread.interrupted();
+            if (val != null) {
+                val.cancel(true);
+            }
+        }
+    }
+
+    private void evaluate(final BoltPlan.Node node, ListenableFuture<?> ready) {
+        final int index = node.index;
+        if (ready != null) {
+            try {
+                getUninterruptibly(ready);
+            } catch (Throwable e) {
+                // 这里只传递异常，不负责具体处理
+                timings[index * TIMINGS + STOP] = System.nanoTime();
+                release(node, null);
+                settle(index, null, null, e instanceof ExecutionException ? e.getCause() : e);
+                return;
+            }
+        }
+
+        final Bolt bolt = node.bolt;
+        final Frame frame = FRAME.get();
+        final BoltContext prevContext = frame.context;
+        final int prevIndex = frame.index;
+        final BoltHedger.Attempts prevHedge = frame.hedge;
+        frame.context = this;
+        frame.index = index;
+        frame.hedge = null;
+        try {
+            if (completed || !enter(index)) {
+                // 流程结束，由于依赖关系，可以保证后续节点不会继续执行，设置null只是触发下完成状态。
+                timings[index * TIMINGS + STOP] = System.nanoTime();
+                release(node, null);
+                settle(index, NULL, null, null);
+                if (node.metrics != null) {
+                    node.metrics.aborted();
+                }
+                if (events != null) {
+                    events.aborted(node, "graph completed");
+                }
+                bolt.aborted();
+                return;
+            }
+
+            timings[index * TIMINGS + EVALUATE_START] = System.nanoTime();
+            if (events != null) {
+                events.evaluateStarted(node);
+            }
+            ListenableFuture<Object> val = null;
+            try {
+                try {
+                    bolt.preEvaluate();
+                    val = bolt.evaluate();
+                    if (node.hedger != null && val != null && !val.isDone()) {
+                        val = hedge(node, val);
+                    }
+                } finally {
+                    exit(index, val);
+                }
+
+                if (val == null) {
+                    throw new NullPointerException(
+                            String.format("Bolt %s evaluate() returned null Future object!", node.name));
+                }
+
+                timings[index * TIMINGS + EVALUATE_STOP] = System.nanoTime();
+                if (events != null) {
+                    events.evaluateStopped(node);
+                }
+                if (node.metrics != null) {
+                    node.metrics.evaluated(timings[index * TIMINGS + READY], timings[index * TIMINGS + EVALUATE_START],
+                            timings[index * TIMINGS + EVALUATE_STOP]);
+                }
+                bolt.postEvaluate(val);
+                final ListenableFuture<Object> evaluated = val;
+
+                if (evaluated.isDone()) {
+                    // 同步完成的结果不再注册回调
+                    Object result = null;
+                    Throwable failure = null;
+                    try {
+                        result = getUninterruptibly(evaluated);
+                    } catch (ExecutionException e) {
+                        failure = e.getCause();
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                    ensureComplete(node, evaluated, result, failure, true);
+                } else {
+                    Futures.addCallback(evaluated, new FutureCallback<Object>() {
+                        @Override
+                        public void onSuccess(Object result) {
+                            ensureComplete(node, evaluated, result, null, true);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable t) {
+                            ensureComplete(node, null, null, t, true);
+                        }
+                    });
+                }
+                if (bolt.log.isDebugEnabled()) {
+                    bolt.log.debug("{} evaluate cost {} ms", node.name, TimeUnit.NANOSECONDS.toMillis(
+                            timings[index * TIMINGS + EVALUATE_STOP] - timings[index * TIMINGS + EVALUATE_START]));
+                }
+            } catch (Throwable e) {
+                timings[index * TIMINGS + EVALUATE_STOP] = System.nanoTime();
+                if (events != null) {
+                    events.evaluateStopped(node);
+                }
+                ensureComplete(node, null, null, e, false);
+            }
+        } finally {
+            frame.context = prevContext;
+            frame.index = prevIndex;
+            frame.hedge = prevHedge;
+        }
+    }
+
+    /**
+     * 超过阈值还没完成时，在对冲的executor上再调用一次 {@link Bolt#evaluate()}
+     *
+     * @return 先成功的结果
+     */
+    private ListenableFuture<Object> hedge(final BoltPlan.Node node, ListenableFuture<Object> primary) {
+        final BoltHedger hedger = node.hedger;
+        final BoltHedger.Attempts attempts = hedger.new Attempts(primary);
+        final ScheduledFuture<?> timer = schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (attempts.isDone() || completed || !hedger.tryHedge(attempts)) {
+                    return;
+                }
+                try {
+                    hedger.executor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            evaluateHedge(node, attempts);
+                        }
+                    });
+                } catch (Throwable e) {
+                    attempts.abort(e);
+                }
+            }
+        }, hedger.thresholdNanos(), TimeUnit.NANOSECONDS);
+        attempts.addListener(new Runnable() {
+            @Override
+            public void run() {
+                timer.cancel(false);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return attempts;
+    }
+
+    /**
+     * 和首次调用一样经过 preEvaluate / postEvaluate，执行期间登记在 attempts 上，图被取消时会被中断。
+     * 附加对象单独保存，不影响首次调用的trace
+     */
+    private void evaluateHedge(BoltPlan.Node node, BoltHedger.Attempts attempts) {
+        if (completed || !attempts.enter()) {
+            attempts.abort(new CancellationException(node.name + " is completed before hedging"));
+            return;
+        }
+        final Bolt bolt = node.bolt;
+        final Frame frame = FRAME.get();
+        final BoltContext prevContext = frame.context;
+        final int prevIndex = frame.index;
+        final BoltHedger.Attempts prevHedge = frame.hedge;
+        frame.context = this;
+        frame.index = node.index;
+        frame.hedge = attempts;
+        ListenableFuture<Object> val = null;
+        Throwable failure = null;
+        try {
+            try {
+                bolt.preEvaluate();
+                val = bolt.evaluate();
+            } finally {
+                attempts.exit();
+            }
+            if (val == null) {
+                throw new NullPointerException(
+                        String.format("Bolt %s evaluate() returned null Future object!", node.name));
+            }
+            bolt.postEvaluate(val);
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            try {
+                bolt.completeHedge(failure == null ? val : null, failure);
+            } catch (Throwable e) {
+                bolt.log.warn("###Bolt error happens at completeHedge()", e);
+            }
+            frame.context = prevContext;
+            frame.index = prevIndex;
+            frame.hedge = prevHedge;
+        }
+        // 对冲调用同步完成时会直接完成节点，这时已经离开了对冲调用的上下文
+        if (failure != null) {
+            if (val != null) {
+                val.cancel(true);
+            }
+            attempts.abort(failure);
+        } else {
+            attempts.hedged(val);
+        }
+    }
+
+    /**
+     * @param evaluated evaluate返回的、已经完成的future，成功时可以直接作为节点结果
+     */
+    private void ensureComplete(BoltPlan.Node node, ListenableFuture<Object> evaluated, Object result, Throwable e,
+                                boolean completedInCallback) {
+        final Bolt bolt = node.bolt;
+        final Frame frame = FRAME.get();
+        final BoltContext prevContext = frame.context;
+        final int prevIndex = frame.index;
+        final BoltHedger.Attempts prevHedge = frame.hedge;
+        frame.context = this;
+        frame.index = node.index;
+        frame.hedge = null;
+        try {
+            try {
+                bolt.completeEvaluate(result, e, completedInCallback);
+            } catch (Throwable completeException) {
+                bolt.log.error("###Bolt error happens at completeEvaluate,", completeException);
+                e = completeException;
+            }
+            timings[node.index * TIMINGS + STOP] = System.nanoTime();
+            release(node, e);
+            if (events != null) {
+                events.completed(node, e);
+            }
+            if (node.metrics != null) {
+                node.metrics.completed(timings[node.index * TIMINGS + EVALUATE_START],
+                        timings[node.index * TIMINGS + STOP], e == null);
+            }
+            settle(node.index, e == null ? evaluated : null, result, e);
+        } finally {
+            frame.context = prevContext;
+            frame.index = prevIndex;
+            frame.hedge = prevHedge;
+        }
+
+        if (e == null) {
+            try {
+                applySinkBolts(node);
+            } catch (Throwable t) {
+                bolt.log.warn("###Bolt error happens at applySinkBolts()", t);
+            }
+        }
+    }
+
+    private void applySinkBolts(final BoltPlan.Node node) {
+        for (final int sink : node.sinks) {
+            try {
+                Futures.addCallback(activate(sink), new FutureCallback<Object>() {
+                    @Override
+                    public void onSuccess(Object result) {
+
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        node.bolt.log.error("sinkBolt evaluated failed.", t);
+                    }
+                });
+            } catch (Throwable e) {
+                //ignore
+                node.bolt.log.warn("sink bolt {} ignore this error: ", plan.node(sink).name, e);
+            }
+        }
+    }
+
+    /**
+     * 截止时间的定时线程，第一次使用时才创建
+     */
+    private static final class Timer {
+
+        private static final ScheduledThreadPoolExecutor INSTANCE = createTimer();
+
+        /**
+         * 执行 {@link #scheduleAsync(Runnable, long, TimeUnit)} 到期的任务，队列不设上限，到期的任务不会被拒绝
+         */
+        private static final Executor CALLBACKS = BMonitor.createInstrumentedExecutorService(
+                Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("bolt-timeout-%d").build(),
+                new ThreadPoolExecutor.AbortPolicy(), "bolt.timeout.callbacks");
+
+        private static ScheduledThreadPoolExecutor createTimer() {
+            final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("bolt-deadline-%d").build());
+            // 图大多会在截止时间之前完成，及时移除取消掉的任务
+            timer.setRemoveOnCancelPolicy(true);
+            return timer;
+        }
+    }
+
+    /**
+     * 线程上当前正在执行的节点，复用同一个对象避免每次进入生命周期方法都分配
+     */
+    private static final class Frame {
+
+        private BoltContext context;
+
+        private int index = -1;
+
+        /**
+         * 正在执行的对冲调用，见 {@link #evaluateHedge(BoltPlan.Node, BoltHedger.Attempts)}
+         */
+        private BoltHedger.Attempts hedge;
+    }
+}
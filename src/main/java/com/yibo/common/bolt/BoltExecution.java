@@ -0,0 +1,79 @@
+package com.yibo.common.bolt;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 飞行记录器记下的一次图执行，见 {@link BoltGraphs#executions(String)}。
+ * <p>
+ * 时间都是相对图开始执行的微秒数，没有到达的时间点为 -1。通过 {@link BoltGraphs#dump(String)} 输出json，为null的字段不输出。
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public final class BoltExecution {
+
+    private final String graph;
+
+    /**
+     * 开始执行的毫秒时间戳
+     */
+    private final long startTime;
+
+    private final long latencyMicros;
+
+    private final boolean succeeded;
+
+    private final String failure;
+
+    /**
+     * 被记录的原因：sampled 采样，slow 慢于近期的 p99
+     */
+    private final String reason;
+
+    /**
+     * 本次启动过的节点，按拓扑序排列
+     */
+    private final List<Node> nodes;
+
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PACKAGE)
+    public static final class Node {
+
+        private final String name;
+
+        /**
+         * 依赖就绪，提交到executor
+         */
+        private final long readyMicros;
+
+        /**
+         * 开始执行 {@link Bolt#evaluate()}
+         */
+        private final long startMicros;
+
+        /**
+         * 结果就绪
+         */
+        private final long stopMicros;
+
+        /**
+         * 执行 {@link Bolt#evaluate()} 的线程
+         */
+        private final String thread;
+
+        private final String failure;
+
+        /**
+         * 超过时间预算、使用了兜底值的依赖
+         */
+        private final List<String> timedOut;
+
+        /**
+         * 分支节点选中的分支
+         */
+        private final String branch;
+    }
+}
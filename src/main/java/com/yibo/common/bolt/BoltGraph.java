@@ -1,236 +1,180 @@
 package com.yibo.common.bolt;
 
-import com.google.common.base.Joiner;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import org.apache.commons.collections.CollectionUtils;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.lang3.StringUtils;
-import org.springframework.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Field;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * .
+ * Bolt图。
+ * <p>
+ * {@link #createGraph()} 只会在第一次执行时调用一次，得到的图被编译成不可变的 {@link BoltPlan} 并缓存在当前实例上，
+ * 之后每次 {@link #execute(Object)} 只创建一个保存结果的 {@link BoltContext}。
+ * 因此推荐把图实例作为单例复用，单次请求的数据通过 {@link #execute(Object)} 传入，在Bolt中用 {@link Bolt#getInput()} 读取。
  */
 public abstract class BoltGraph<I, O> {
 
-    volatile boolean completed = false;
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private volatile BoltPlan plan;
+
+    private CriticalPath criticalPath;
+
+    private BoltGraphModel model;
+
+    /**
+     * 执行计划和共享的模型结构相同时才统计分支
+     */
+    private boolean countBranches;
 
     /**
      * 这个返回的future，get的时候记得设置超时
-     * Timeout的时候，记得主动调用cancel接口，触发interrupt和图的完成
+     * Timeout的时候，记得主动调用cancel接口，触发interrupt和图的完成，或者直接使用 {@link #execute(Object, long, TimeUnit)}
      * 图完成之后，后续没有指定的bolt会直接跳过逻辑的执行，节省资源
      * @return 代表整个图的运算结果的future
      */
     public ListenableFuture<O> execute() {
-        ListenableFuture<O> future = createGraph().register(this).execute();
+        return execute(null);
+    }
+
+    /**
+     * 用指定输入执行一次图
+     *
+     * @param input 本次执行的输入，Bolt中通过 {@link Bolt#getInput()} 读取
+     * @return 代表整个图的运算结果的future
+     * @see #execute()
+     */
+    public ListenableFuture<O> execute(I input) {
+        return run(new BoltContext(plan(), getName(), input));
+    }
+
+    /**
+     * 带截止时间执行一次图。
+     * 到达截止时间时，返回的future以 {@link TimeoutException} 失败，正在执行的Bolt会被中断、evaluate返回的future会被取消，
+     * 还没开始的Bolt直接跳过。Bolt中可以通过 {@link Bolt#getRemainingTime(TimeUnit)} 获取剩余的时间。
+     *
+     * @param input   本次执行的输入
+     * @param timeout 超时时间
+     * @param unit    超时时间单位
+     * @return 代表整个图的运算结果的future
+     */
+    public ListenableFuture<O> execute(I input, final long timeout, final TimeUnit unit) {
+        checkArgument(timeout > 0, "timeout must be positive");
+        checkNotNull(unit, "time unit cannot be null");
+        final BoltContext context = new BoltContext(plan(), getName(), input, System.nanoTime() + unit.toNanos(timeout));
+        final ListenableFuture<O> future = run(context);
+        // 取消会完成根节点、触发调用方的回调，不能在共享的定时线程上执行
+        final ScheduledFuture<?> timer = BoltContext.scheduleAsync(new Runnable() {
+            @Override
+            public void run() {
+                context.cancel(new TimeoutException(String.format("%s timed out after %d %s", getName(), timeout, unit)));
+            }
+        }, timeout, unit);
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                timer.cancel(false);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return future;
+    }
+
+    private ListenableFuture<O> run(final BoltContext context) {
+        ListenableFuture<O> future = context.start();
         Futures.addCallback(future, new FutureCallback() {
             @Override
             public void onSuccess(Object result) {
-
+                record(context, null);
             }
 
             @Override
             public void onFailure(Throwable t) {
-                //设置终止状态，节点执行前检查此状态
-                complete();
+                //设置终止状态，节点执行前检查此状态，同时取消还在执行的节点
+                context.cancel(t);
+                record(context, t);
             }
         });
         return future;
     }
 
-    public String printGraph() {
-        Bolt bolt = createGraph();
-        if (bolt == null) {
-            return "null";
-        }
-        try {
-            StringBuilder flowchart = new StringBuilder();
-            flowchart.append("digraph G { \r\n");
-            flowchart.append(bolt.getName() + " [style=filled,fillcolor = red]\r\n");
-            flowchart.append(printGraph(bolt, new HashSet<Bolt>()));
-            flowchart.append("}");
-            return flowchart.toString();
-        } catch (NoSuchFieldException e) {
-            return "create graph Error." + e.getMessage();
-        }
-    }
-
-    boolean isCompleted() {
-        return completed;
+    /**
+     * 图的名字，用于监控指标和日志
+     */
+    public String getName() {
+        final String simpleName = getClass().getSimpleName();
+        return StringUtils.isNotEmpty(simpleName) ? simpleName : StringUtils.substringAfterLast(getClass().getName(), ".");
     }
 
-    void complete() {
-        this.completed = true;
+    /**
+     * 输出关键路径日志的采样率，0 表示不输出。关键路径的指标总是记录
+     *
+     * @return [0, 1]
+     */
+    protected double getCriticalPathSampleRate() {
+        return 0.001D;
     }
 
-    private String printGraph(Bolt bolt, Set<Bolt> printed) throws NoSuchFieldException {
-        if (bolt instanceof PredicateSwitchBolt) {
-            return printPredicateSwitchBolt(null, (PredicateSwitchBolt) bolt, printed);
-        } else {
-            return printNormalBolt(bolt, printed);
-        }
+    /**
+     * 飞行记录器的采样率，慢于近期 p99 的执行总是记录，见 {@link BoltGraphs#executions(String)}
+     *
+     * @return [0, 1]
+     */
+    protected double getFlightRecorderSampleRate() {
+        return 0.01D;
     }
 
-    private String printPredicateSwitchBolt(Bolt bolt, PredicateSwitchBolt predicateSwitchBolt, Set<Bolt> printed) throws NoSuchFieldException {
-        if (printed.contains(predicateSwitchBolt)) {
-            return "";
-        }
-
-
-        final Field trueBoltField = PredicateSwitchBolt.class.getDeclaredField("trueBolt");
-        final Field falseBoltField = PredicateSwitchBolt.class.getDeclaredField("falseBolt");
-        ReflectionUtils.makeAccessible(trueBoltField);
-        ReflectionUtils.makeAccessible(falseBoltField);
-        Bolt trueBolt = (Bolt) ReflectionUtils.getField(trueBoltField, predicateSwitchBolt);
-        Bolt falseBolt = (Bolt) ReflectionUtils.getField(falseBoltField, predicateSwitchBolt);
-
-        StringBuilder sb = new StringBuilder();
-        sb.append(printNormalBolt(predicateSwitchBolt, printed));
-
-        printed.add(predicateSwitchBolt);
-
-        sb.append(predicateSwitchBolt.getName()).append(" -> ").append(trueBolt.getName()).append(" [headlabel=T,color=\"green\"]\r\n");
-        sb.append(predicateSwitchBolt.getName()).append(" -> ").append(falseBolt.getName()).append(" [headlabel=F,color=\"red\"]\r\n");
-
-        if (trueBolt instanceof PredicateSwitchBolt) {
-            sb.append(printPredicateSwitchBolt(bolt, (PredicateSwitchBolt) trueBolt, printed));
-        } else {
-            sb.append(printNormalBolt(trueBolt, printed));
-        }
-        if (falseBolt instanceof PredicateSwitchBolt) {
-            sb.append(printPredicateSwitchBolt(bolt, (PredicateSwitchBolt) falseBolt, printed));
-        } else {
-            sb.append(printNormalBolt(falseBolt, printed));
-        }
-
-        return sb.toString();
+    /**
+     * 渲染当前图的结构和各节点的监控数据，格式见 {@link BoltGraphs#render(String)}
+     *
+     * @return graphviz的dot格式
+     */
+    public String printGraph() {
+        plan();
+        return model.render();
     }
 
-    private String printNormalBolt(final Bolt bolt, final Set<Bolt> printed) throws NoSuchFieldException {
-        if (bolt == null) {
-            return "";
-        }
-        if (bolt == Bolt.NULL_NODE) {
-            return "";
-        }
-        if (printed.contains(bolt)) {
-            return "";
-        }
-
-        printed.add(bolt);
-
-        final Field dependenciesField = Bolt.class.getDeclaredField("dependencies");
-        final Field optionalField = Bolt.class.getDeclaredField("optionals");
-        final Field sinkBoltsField = Bolt.class.getDeclaredField("sinkBolts");
-        ReflectionUtils.makeAccessible(dependenciesField);
-        ReflectionUtils.makeAccessible(optionalField);
-        ReflectionUtils.makeAccessible(sinkBoltsField);
-        Map<Enum, Bolt> dependencies = (Map<Enum, Bolt>) ReflectionUtils.getField(dependenciesField, bolt);
-        final Set<Enum> optionals = (Set<Enum>) ReflectionUtils.getField(optionalField, bolt);
-
-        StringBuilder sb = new StringBuilder();
-
-        if (dependencies.isEmpty()) {
-            return "";
-        }
-
-        Set<Enum> leafNode = Sets.newHashSet();
-        for (Map.Entry<Enum, Bolt> item : dependencies.entrySet()) {
-            if (printed.contains(item.getValue())) {
-                continue;
-            }
-            if (item.getValue() instanceof PredicateSwitchBolt) {
-                final String subGraph = printPredicateSwitchBolt(bolt, (PredicateSwitchBolt)item.getValue(), printed);
-                if (StringUtils.isEmpty(subGraph)) {
-                    leafNode.add(item.getKey());
-                }
-                sb.append(subGraph);
-            } else {
-                final String subGraph = printGraph(item.getValue(), printed);
-                if (StringUtils.isEmpty(subGraph)) {
-                    leafNode.add(item.getKey());
+    /**
+     * 编译好的执行计划，第一次调用时创建
+     */
+    BoltPlan plan() {
+        BoltPlan compiled = plan;
+        if (compiled == null) {
+            synchronized (this) {
+                compiled = plan;
+                if (compiled == null) {
+                    compiled = BoltPlan.compile(createGraph());
+                    criticalPath = new CriticalPath(getName(), compiled);
+                    model = BoltGraphs.register(this, compiled);
+                    countBranches = model.matches(compiled);
+                    plan = compiled;
                 }
-                sb.append(subGraph);
-            }
-        }
-
-        if (CollectionUtils.isNotEmpty(leafNode)) {
-            dependencies.entrySet()
-                .stream()
-                .filter(e -> leafNode.contains(e.getKey()))
-                .forEach(e -> sb.append(e.getValue().getName() + " [style=filled,fillcolor = green]\n"));
-        }
-
-        final Map<Boolean, List<Map.Entry<Enum, Bolt>>> grouped = dependencies.entrySet()
-            .stream()
-            .collect(Collectors.groupingBy(b -> optionals.contains(b.getKey())));
-        // 必须依赖
-        final List<Map.Entry<Enum, Bolt>> required = grouped.get(Boolean.FALSE);
-        if (CollectionUtils.isEmpty(required)) {
-            sb.append(bolt.getName() + " [style=filled,fillcolor = green]\n");
-        } else {
-            sb.append(" {");
-            sb.append(Joiner.on(" ").join(Iterables.transform(required, input -> {
-                if (input.getValue() instanceof PredicateSwitchBolt) {
-                    return rendorPredicateSwitchBolt(input);
-            } else {
-                    return input.getValue().getName();
             }
-            })));
-            sb.append("}");
-            sb.append(" ->");
-            sb.append(bolt.getName());
-            sb.append("\r\n");
         }
-        // 非必须依赖
-        final List<Map.Entry<Enum, Bolt>> optional = grouped.get(Boolean.TRUE);
-        if(CollectionUtils.isNotEmpty(optional)) {
-        sb.append("{");
-            sb.append(Joiner.on(" ").join(Iterables.transform(optional, input -> {
-                if (input.getValue() instanceof PredicateSwitchBolt) {
-                    return rendorPredicateSwitchBolt(input);
-                } else {
-                    return input.getValue().getName();
-                }
-            })));
-            sb.append("}");
-            sb.append(" ->");
-            sb.append(bolt.getName());
-            sb.append(" [style = dashed] \r\n");
-        }
-
-        return sb.toString();
+        return compiled;
     }
 
-    private String rendorPredicateSwitchBolt(Map.Entry<Enum, Bolt> input) {
-                    try {
-                        final Field trueBoltField = PredicateSwitchBolt.class.getDeclaredField("trueBolt");
-                        final Field falseBoltField = PredicateSwitchBolt.class.getDeclaredField("falseBolt");
-                        ReflectionUtils.makeAccessible(trueBoltField);
-                        ReflectionUtils.makeAccessible(falseBoltField);
-                        Bolt trueBolt = (Bolt) ReflectionUtils.getField(trueBoltField, input.getValue());
-                        Bolt falseBolt = (Bolt) ReflectionUtils.getField(falseBoltField, input.getValue());
-                        StringBuilder sb = new StringBuilder();
-                        if (trueBolt != Bolt.NULL_NODE) {
-                sb.append(trueBolt.getName());
-                        }
-                        if (falseBolt != Bolt.NULL_NODE) {
-                sb.append(falseBolt.getName());
-                        }
-
-                        return sb.toString();
-                    } catch (NoSuchFieldException e) {
-                        throw new RuntimeException(e);
-                    }
+    private void record(BoltContext context, Throwable failure) {
+        try {
+            final double rate = getCriticalPathSampleRate();
+            final boolean sampled = rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+            criticalPath.record(context, failure == null, sampled, log);
+            final double recorderRate = getFlightRecorderSampleRate();
+            model.record(context, plan, failure, recorderRate > 0 && ThreadLocalRandom.current().nextDouble() < recorderRate,
+                    countBranches);
+        } catch (Throwable e) {
+            log.warn("record execution of {} failed", getName(), e);
+        }
     }
 
     protected abstract Bolt<O> createGraph();
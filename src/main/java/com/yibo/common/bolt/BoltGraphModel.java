@@ -0,0 +1,326 @@
+package com.yibo.common.bolt;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.yibo.common.monitor.MetricsHolder;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一类Bolt图的结构模型，按图的类型在第一次编译执行计划时创建一次，之后只读。
+ * <p>
+ * 渲染时只读取结构和 bolt.{name}.* 指标的当前值，不再调用 {@link BoltGraph#createGraph()}、不使用反射。
+ * 分支节点额外记录每个分支被选中的次数，最近的执行记录在 {@link BoltRecorder} 中。
+ */
+final class BoltGraphModel {
+
+    /**
+     * p99 达到图中最慢节点的这个比例时标红
+     */
+    private static final double SLOW_RATIO = 0.5D;
+
+    /**
+     * p99 达到图中最慢节点的这个比例时标黄
+     */
+    private static final double WARN_RATIO = 0.2D;
+
+    /**
+     * 失败率达到这个比例时加红色边框
+     */
+    private static final double ERROR_RATE = 0.01D;
+
+    private final String graphName;
+
+    private final int root;
+
+    private final Vertex[] vertices;
+
+    private final BoltRecorder recorder;
+
+    BoltGraphModel(String graphName, BoltPlan plan) {
+        this.graphName = graphName;
+        this.recorder = new BoltRecorder(graphName);
+        this.root = plan.root();
+        this.vertices = new Vertex[plan.size()];
+        for (int i = 0; i < plan.size(); i++) {
+            vertices[i] = new Vertex(plan.node(i));
+        }
+    }
+
+    BoltRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * @return 执行计划和创建模型的计划结构是否相同：节点名字、依赖、sink和分支都一致
+     */
+    boolean matches(BoltPlan plan) {
+        if (plan.size() != vertices.length || plan.root() != root) {
+            return false;
+        }
+        for (Vertex vertex : vertices) {
+            final BoltPlan.Node node = plan.node(vertex.index);
+            if (!vertex.name.equals(node.bolt.getHumanReadableName())
+                    || !Arrays.equals(vertex.required, node.required)
+                    || !Arrays.equals(vertex.optional, node.optional)
+                    || !Arrays.equals(vertex.sinks, node.sinks)
+                    || !Arrays.equals(vertex.branches, node.branches)
+                    || vertex.timed.length != node.timed.length) {
+                return false;
+            }
+            for (int i = 0; i < vertex.timed.length; i++) {
+                if (vertex.timed[i] != node.timed[i].dependency) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 记录一次执行：交给飞行记录器，并统计各分支节点选中的分支
+     *
+     * @param failure  图失败的原因，成功时为null
+     * @param sample   飞行记录器是否采样这次执行
+     * @param branches 是否统计分支，执行计划和模型结构不一致时（比如按实例参数建图）为false，见 {@link #matches(BoltPlan)}
+     */
+    void record(BoltContext context, BoltPlan plan, Throwable failure, boolean sample, boolean branches) {
+        recorder.record(context, plan, failure, sample);
+        if (!branches) {
+            return;
+        }
+        for (Vertex vertex : vertices) {
+            if (vertex.taken == null || !context.isStarted(vertex.index)) {
+                continue;
+            }
+            for (int i = 0; i < vertex.branches.length; i++) {
+                if (context.isStarted(vertex.branches[i])) {
+                    vertex.taken[i].increment();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 渲染成graphviz的dot格式：
+     * 实线为必须依赖，虚线为可选依赖，点线为有时间预算的依赖，灰色虚线为sink，分支边上标注选中比例；
+     * 节点上标注 p50/p99（毫秒）、失败率和跳过率，按 p99 相对图中最慢节点的比例着色；
+     * 熔断中的节点标灰，探测中的节点用虚线边框。
+     */
+    String render() {
+        final Map<String, Metric> metrics = MetricsHolder.getMetricRegistry().getMetrics();
+        final Stats[] stats = new Stats[vertices.length];
+        double slowest = 0;
+        for (Vertex vertex : vertices) {
+            if (vertex.metricName != null) {
+                final Stats item = new Stats(metrics, vertex.metricName);
+                stats[vertex.index] = item;
+                slowest = Math.max(slowest, item.p99);
+            }
+        }
+
+        final StringBuilder dot = new StringBuilder();
+        dot.append("digraph \"").append(escape(graphName)).append("\" {\n");
+        dot.append("  node [shape=box, style=filled, fillcolor=white];\n");
+        for (Vertex vertex : vertices) {
+            if (vertex.hidden) {
+                continue;
+            }
+            dot.append("  n").append(vertex.index).append(" [label=\"").append(escape(vertex.name));
+            final Stats item = stats[vertex.index];
+            if (item != null && item.count > 0) {
+                dot.append(String.format("\\np50 %.1fms p99 %.1fms", item.p50, item.p99));
+                dot.append(String.format("\\nerr %.2f%% skip %.2f%%", item.errorRate * 100, item.abortRate * 100));
+            }
+            final int circuit = vertex.breaker == null ? BoltBreaker.CLOSED : vertex.breaker.getState();
+            if (circuit == BoltBreaker.OPEN) {
+                dot.append("\\ncircuit open");
+            } else if (circuit == BoltBreaker.HALF_OPEN) {
+                dot.append("\\ncircuit half open");
+            }
+            dot.append('"');
+            if (circuit == BoltBreaker.OPEN) {
+                dot.append(", fillcolor=\"#cccccc\"");
+            } else if (circuit == BoltBreaker.HALF_OPEN) {
+                dot.append(", style=\"filled,dashed\"");
+            }
+            if (circuit != BoltBreaker.OPEN && item != null && item.count > 0 && slowest > 0) {
+                final double ratio = item.p99 / slowest;
+                dot.append(", fillcolor=\"").append(ratio >= SLOW_RATIO ? "#f4cccc" : ratio >= WARN_RATIO ? "#fff2cc" : "#d9ead3").append('"');
+                if (item.errorRate >= ERROR_RATE) {
+                    dot.append(", color=red, penwidth=2");
+                }
+            }
+            if (vertex.index == root) {
+                dot.append(", peripheries=2");
+            }
+            dot.append("];\n");
+        }
+
+        for (Vertex vertex : vertices) {
+            for (int dep : vertex.required) {
+                edge(dot, dep, vertex.index, null);
+            }
+            for (int dep : vertex.optional) {
+                edge(dot, dep, vertex.index, "style=dashed");
+            }
+            for (int i = 0; i < vertex.timed.length; i++) {
+                edge(dot, vertex.timed[i], vertex.index, "style=dotted, label=\"<=" + vertex.timeoutMillis[i] + "ms\"");
+            }
+            for (int sink : vertex.sinks) {
+                edge(dot, vertex.index, sink, "style=dashed, color=gray, label=\"sink\"");
+            }
+            if (vertex.taken != null) {
+                long total = 0;
+                for (LongAdder count : vertex.taken) {
+                    total += count.sum();
+                }
+                for (int i = 0; i < vertex.branches.length; i++) {
+                    final long count = vertex.taken[i].sum();
+                    final String percent = total == 0 ? "" : String.format(" %.1f%%", count * 100D / total);
+                    edge(dot, vertex.index, vertex.branches[i], String.format("headlabel=\"%s%s\", color=%s",
+                            branchLabel(vertex, i), percent, i == 0 ? "green" : i == 1 ? "red" : "blue"));
+                }
+            }
+        }
+        dot.append("}\n");
+        return dot.toString();
+    }
+
+    private void edge(StringBuilder dot, int from, int to, String attributes) {
+        if (vertices[from].hidden || vertices[to].hidden) {
+            return;
+        }
+        dot.append("  n").append(from).append(" -> n").append(to);
+        if (attributes != null) {
+            dot.append(" [").append(attributes).append(']');
+        }
+        dot.append(";\n");
+    }
+
+    private static String branchLabel(Vertex vertex, int branch) {
+        if (vertex.predicate) {
+            return branch == 0 ? "T" : "F";
+        }
+        return String.valueOf(branch);
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * 节点的结构信息，不持有Bolt实例，避免按请求建图时模型引用第一次的输入
+     */
+    private static final class Vertex {
+
+        final int index;
+
+        final String name;
+
+        final String metricName;
+
+        final boolean predicate;
+
+        /**
+         * {@link Bolt#NULL_NODE} 不画出来
+         */
+        final boolean hidden;
+
+        /**
+         * 没有设置熔断时为null
+         */
+        final BoltBreaker breaker;
+
+        final int[] required;
+
+        final int[] optional;
+
+        final int[] timed;
+
+        final long[] timeoutMillis;
+
+        final int[] sinks;
+
+        final int[] branches;
+
+        /**
+         * 每个分支被选中的次数，没有分支时为null
+         */
+        final LongAdder[] taken;
+
+        Vertex(BoltPlan.Node node) {
+            this.index = node.index;
+            this.name = node.bolt.getHumanReadableName();
+            this.metricName = node.bolt.metricName();
+            this.predicate = node.bolt instanceof PredicateSwitchBolt;
+            this.hidden = node.bolt == Bolt.NULL_NODE;
+            this.breaker = node.breaker;
+            this.required = node.required;
+            this.optional = node.optional;
+            this.timed = new int[node.timed.length];
+            this.timeoutMillis = new long[node.timed.length];
+            for (int i = 0; i < node.timed.length; i++) {
+                timed[i] = node.timed[i].dependency;
+                timeoutMillis[i] = TimeUnit.NANOSECONDS.toMillis(node.timed[i].timeoutNanos);
+            }
+            this.sinks = node.sinks;
+            this.branches = node.branches;
+            if (branches.length == 0) {
+                this.taken = null;
+            } else {
+                this.taken = new LongAdder[branches.length];
+                for (int i = 0; i < taken.length; i++) {
+                    taken[i] = new LongAdder();
+                }
+            }
+        }
+    }
+
+    /**
+     * 渲染时读取的节点指标，耗时单位毫秒，比例为启动以来的累计值
+     */
+    private static final class Stats {
+
+        long count;
+
+        double p50;
+
+        double p99;
+
+        double errorRate;
+
+        double abortRate;
+
+        Stats(Map<String, Metric> metrics, String metricName) {
+            final Metric complete = metrics.get(MetricRegistry.name(BoltMetrics.PREFIX, metricName, "complete"));
+            if (complete instanceof Timer) {
+                final Snapshot snapshot = ((Timer) complete).getSnapshot();
+                this.p50 = snapshot.getMedian() / TimeUnit.MILLISECONDS.toNanos(1);
+                this.p99 = snapshot.get99thPercentile() / TimeUnit.MILLISECONDS.toNanos(1);
+            }
+            final long success = count(metrics, metricName, "success");
+            final long failure = count(metrics, metricName, "failure");
+            final long aborted = count(metrics, metricName, "aborted");
+            this.count = success + failure;
+            if (count > 0) {
+                this.errorRate = (double) failure / count;
+            }
+            if (count + aborted > 0) {
+                this.abortRate = (double) aborted / (count + aborted);
+            }
+        }
+
+        private static long count(Map<String, Metric> metrics, String metricName, String type) {
+            final Metric counter = metrics.get(MetricRegistry.name(BoltMetrics.PREFIX, metricName, type));
+            return counter instanceof Counter ? ((Counter) counter).getCount() : 0;
+        }
+    }
+}
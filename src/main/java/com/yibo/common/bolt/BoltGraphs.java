@@ -0,0 +1,80 @@
+package com.yibo.common.bolt;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 已执行过的Bolt图的结构模型和飞行记录，按图的类的全限定名登记，供监控端点查询。
+ * <p>
+ * 同一类型的图只登记第一次编译出的模型，之后新建的实例（包括每次请求新建图的用法）共用这个模型；
+ * 按实例参数建出结构不同的图时，这些实例的执行不计入分支的选中比例。
+ */
+public final class BoltGraphs {
+
+    private static final ConcurrentMap<String, BoltGraphModel> MODELS = new ConcurrentHashMap<>();
+
+    private BoltGraphs() {
+    }
+
+    static BoltGraphModel register(BoltGraph<?, ?> graph, BoltPlan plan) {
+        final String className = graph.getClass().getName();
+        final BoltGraphModel model = MODELS.get(className);
+        if (model != null) {
+            return model;
+        }
+        final BoltGraphModel created = new BoltGraphModel(graph.getName(), plan);
+        final BoltGraphModel existing = MODELS.putIfAbsent(className, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * @return 所有已登记的图的类的全限定名
+     */
+    public static Set<String> names() {
+        return ImmutableSortedSet.copyOf(MODELS.keySet());
+    }
+
+    /**
+     * 飞行记录器中指定的图最近的执行
+     *
+     * @param graphName 图的类的全限定名，见 {@link #names()}
+     * @return slow: 慢于近期 p99 的执行，sampled: 采样的执行，都是新的在前；图不存在或还没执行过时返回null
+     */
+    public static Map<String, List<BoltExecution>> executions(String graphName) {
+        final BoltGraphModel model = find(graphName);
+        if (model == null) {
+            return null;
+        }
+        return ImmutableMap.of("slow", model.getRecorder().slow(), "sampled", model.getRecorder().sampled());
+    }
+
+    /**
+     * @return {@link #executions(String)} 的json格式，方便直接输出到日志；图不存在或还没执行过时返回null
+     */
+    public static String dump(String graphName) {
+        final Map<String, List<BoltExecution>> executions = executions(graphName);
+        return executions == null ? null : JSON.toJSONString(executions);
+    }
+
+    /**
+     * 渲染指定的图，带上各节点当前的监控数据
+     *
+     * @param graphName 图的类的全限定名，见 {@link #names()}
+     * @return graphviz的dot格式，图不存在或还没执行过时返回null
+     */
+    public static String render(String graphName) {
+        final BoltGraphModel model = find(graphName);
+        return model == null ? null : model.render();
+    }
+
+    private static BoltGraphModel find(String graphName) {
+        return graphName == null ? null : MODELS.get(graphName);
+    }
+}
@@ -0,0 +1,259 @@
+package com.yibo.common.bolt;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.yibo.common.monitor.MetricsHolder;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个节点的对冲执行，编译执行计划时按 {@link Bolt#hedgePolicy()} 创建。
+ * <p>
+ * 指标为 bolt.{name}.hedge（发起对冲）、bolt.{name}.hedge.win（对冲的调用先成功）、
+ * bolt.{name}.hedge.exhausted（因预算不足放弃对冲），对冲率和胜率相对 bolt.{name}.complete 计算。
+ */
+final class BoltHedger {
+
+    /**
+     * p95阈值的刷新间隔，避免每次都计算快照
+     */
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final HedgePolicy policy;
+
+    /**
+     * 对冲调用使用的executor
+     */
+    private final Executor executor;
+
+    /**
+     * 用于计算p95，没有监控指标时为null
+     */
+    private final Timer latency;
+
+    private final Meter hedge;
+
+    private final Meter win;
+
+    private final Counter exhausted;
+
+    private volatile long thresholdNanos;
+
+    private volatile long refreshedNanos;
+
+    BoltHedger(HedgePolicy policy, BoltPlan.Node node) {
+        this.policy = policy;
+        // 对冲调用在定时线程上触发，不能在定时线程上直接执行
+        this.executor = node.direct ? BoltScheduler.executor(Workload.BLOCKING, node.bolt.bulkhead()) : node.executor;
+        this.latency = node.metrics == null ? null : node.metrics.latency();
+        final String name = node.bolt.metricName();
+        if (name == null) {
+            // 不记录监控的Bolt使用不注册的指标，避免按节点名生成监控项
+            this.hedge = new Meter();
+            this.win = new Meter();
+            this.exhausted = new Counter();
+        } else {
+            this.hedge = MetricsHolder.meter(MetricRegistry.name(BoltMetrics.PREFIX, name, "hedge"));
+            this.win = MetricsHolder.meter(MetricRegistry.name(BoltMetrics.PREFIX, name, "hedge", "win"));
+            this.exhausted = MetricsHolder.counter(MetricRegistry.name(BoltMetrics.PREFIX, name, "hedge", "exhausted"));
+        }
+        this.thresholdNanos = policy.getDelayNanos();
+        this.refreshedNanos = System.nanoTime();
+    }
+
+    Executor executor() {
+        return executor;
+    }
+
+    /**
+     * @return 发起对冲前等待的时间
+     */
+    long thresholdNanos() {
+        if (!policy.isAdaptive() || latency == null) {
+            return policy.getDelayNanos();
+        }
+        final long now = System.nanoTime();
+        if (now - refreshedNanos > REFRESH_NANOS) {
+            refreshedNanos = now;
+            thresholdNanos = Math.max(policy.getDelayNanos(), (long) latency.getSnapshot().get95thPercentile());
+        }
+        return thresholdNanos;
+    }
+
+    /**
+     * 预算足够并且结果还没有确定时登记一次对冲调用，登记失败时退还令牌
+     *
+     * @return 可以发起对冲
+     */
+    boolean tryHedge(Attempts attempts) {
+        if (!HedgePolicy.tryAcquire()) {
+            exhausted.inc();
+            return false;
+        }
+        if (!attempts.begin()) {
+            HedgePolicy.refund();
+            return false;
+        }
+        hedge.mark();
+        return true;
+    }
+
+    /**
+     * 多次调用中先成功的结果，取消时取消所有调用
+     */
+    final class Attempts extends AbstractFuture<Object> {
+
+        private final ListenableFuture<Object> primary;
+
+        private ListenableFuture<Object> secondary;
+
+        /**
+         * 还没结束的调用数，受当前对象的锁保护
+         */
+        private int pending = 1;
+
+        /**
+         * 正在同步执行对冲调用的线程，取消时中断，受当前对象的锁保护
+         */
+        private Thread running;
+
+        /**
+         * 最近一次失败的原因，受当前对象的锁保护
+         */
+        private Throwable failure;
+
+        /**
+         * 对冲调用的附加对象，和首次调用的分开保存，见 {@link Bolt#getAttachment()}
+         */
+        Object attachment;
+
+        Attempts(ListenableFuture<Object> primary) {
+            this.primary = primary;
+            HedgePolicy.deposit();
+            watch(primary, false);
+        }
+
+        /**
+         * 登记一次对冲调用，结果已经确定时返回false
+         */
+        synchronized boolean begin() {
+            if (isDone()) {
+                return false;
+            }
+            pending++;
+            return true;
+        }
+
+        /**
+         * 登记当前线程正在执行对冲调用，结果已经确定时返回false
+         */
+        synchronized boolean enter() {
+            if (isDone()) {
+                return false;
+            }
+            running = Thread.currentThread();
+            return true;
+        }
+
+        /**
+         * 注销正在执行的线程，期间被取消时清理掉中断标记
+         */
+        void exit() {
+            synchronized (this) {
+                running = null;
+            }
+            if (isCancelled()) {
+                Thread.interrupted();
+            }
+        }
+
+        /**
+         * 对冲调用没能开始
+         */
+        void abort(Throwable t) {
+            final Throwable primaryFailure;
+            synchronized (this) {
+                primaryFailure = failure;
+            }
+            // 首次调用已经失败时以它的失败为准
+            failed(primaryFailure != null ? primaryFailure : t);
+        }
+
+        void hedged(ListenableFuture<Object> secondary) {
+            synchronized (this) {
+                this.secondary = secondary;
+            }
+            if (isDone()) {
+                secondary.cancel(true);
+                return;
+            }
+            watch(secondary, true);
+        }
+
+        private void watch(final ListenableFuture<Object> attempt, final boolean hedged) {
+            Futures.addCallback(attempt, new FutureCallback<Object>() {
+                @Override
+                public void onSuccess(Object result) {
+                    if (set(result)) {
+                        if (hedged) {
+                            win.mark();
+                        }
+                        cancelOthers(attempt);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failed(t);
+                }
+            });
+        }
+
+        private void failed(Throwable t) {
+            final boolean last;
+            synchronized (this) {
+                last = --pending == 0;
+                failure = t;
+            }
+            if (last) {
+                setException(t);
+            }
+        }
+
+        private void cancelOthers(ListenableFuture<Object> winner) {
+            final ListenableFuture<Object> other;
+            synchronized (this) {
+                other = winner == primary ? secondary : primary;
+            }
+            if (other != null) {
+                other.cancel(true);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            final ListenableFuture<Object> other;
+            synchronized (this) {
+                other = secondary;
+                if (mayInterruptIfRunning && running != null) {
+                    running.interrupt();
+                }
+            }
+            primary.cancel(mayInterruptIfRunning);
+            if (other != null) {
+                other.cancel(mayInterruptIfRunning);
+            }
+            return true;
+        }
+    }
+}
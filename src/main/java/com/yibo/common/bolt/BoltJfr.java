@@ -0,0 +1,65 @@
+package com.yibo.common.bolt;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bolt的JFR(JDK Flight Recorder)事件开关。
+ * <p>
+ * 打开后，正在录制JFR时每次图执行会产生图执行、节点排队、执行evaluate、异步完成和跳过的事件（分类 Bolt），
+ * 事件带有图和节点的名字，可以和同一份录制中的GC、锁竞争、内存分配对照。
+ * 关闭或者没有在录制时，每次执行只多读一个volatile字段，不创建任何事件对象。
+ * <p>
+ * 默认关闭，可以用 -Dbolt.jfr.enabled=true 或者 {@link #setEnabled(boolean)} 打开。
+ * 需要运行在带有 jdk.jfr 的JDK上（8u262 及以上），没有时打开无效。
+ *
+ * @author yibo
+ */
+public final class BoltJfr {
+
+    private static final Logger log = LoggerFactory.getLogger(BoltJfr.class);
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private static volatile boolean enabled;
+
+    static {
+        if (Boolean.getBoolean("bolt.jfr.enabled")) {
+            setEnabled(true);
+        }
+    }
+
+    private BoltJfr() {
+    }
+
+    public static void setEnabled(boolean value) {
+        if (value && !AVAILABLE) {
+            log.warn("jdk.jfr is not available in this JVM, bolt JFR events stay disabled");
+            return;
+        }
+        if (value) {
+            BoltJfrEvents.init();
+        }
+        enabled = value;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return 打开了开关并且正在录制
+     */
+    static boolean isActive() {
+        return enabled && BoltJfrEvents.isRecording();
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, BoltJfr.class.getClassLoader());
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+}
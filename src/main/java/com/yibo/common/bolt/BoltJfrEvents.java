@@ -0,0 +1,219 @@
+package com.yibo.common.bolt;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+
+/**
+ * 一次图执行的JFR事件，只在 {@link BoltJfr#isActive()} 时创建，所有对 jdk.jfr 的引用都在这个类里。
+ * <p>
+ * 跨线程的事件（排队、异步完成）按节点下标暂存，开始和结束各由一个线程写入，
+ * 中间经过依赖future或者executor的提交，不需要额外同步。
+ */
+final class BoltJfrEvents {
+
+    private static volatile boolean recording;
+
+    private static boolean initialized;
+
+    private final String graph;
+
+    private final GraphExecution execution;
+
+    private final NodeQueued[] queued;
+
+    private final NodeEvaluate[] evaluating;
+
+    private final NodeCompletion[] completing;
+
+    BoltJfrEvents(String graph, int size) {
+        this.graph = graph;
+        this.queued = new NodeQueued[size];
+        this.evaluating = new NodeEvaluate[size];
+        this.completing = new NodeCompletion[size];
+        this.execution = new GraphExecution();
+        execution.graph = graph;
+        execution.begin();
+    }
+
+    /**
+     * 跟踪JFR的录制状态，没有录制时不产生事件
+     */
+    static synchronized void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                refresh();
+            }
+
+            @Override
+            public void recordingStateChanged(Recording changed) {
+                refresh();
+            }
+        });
+        refresh();
+    }
+
+    static boolean isRecording() {
+        return recording;
+    }
+
+    private static void refresh() {
+        boolean running = false;
+        if (FlightRecorder.isInitialized()) {
+            for (Recording item : FlightRecorder.getFlightRecorder().getRecordings()) {
+                if (item.getState() == RecordingState.RUNNING) {
+                    running = true;
+                    break;
+                }
+            }
+        }
+        recording = running;
+    }
+
+    void graphCompleted(Throwable failure) {
+        execution.succeeded = failure == null;
+        execution.failure = failure == null ? null : failure.getClass().getName();
+        execution.commit();
+    }
+
+    void queued(BoltPlan.Node node) {
+        final NodeQueued event = new NodeQueued();
+        event.graph = graph;
+        event.node = node.name;
+        event.begin();
+        queued[node.index] = event;
+    }
+
+    void evaluateStarted(BoltPlan.Node node) {
+        final NodeQueued wait = queued[node.index];
+        if (wait != null) {
+            wait.commit();
+        }
+        final NodeEvaluate evaluate = new NodeEvaluate();
+        evaluate.graph = graph;
+        evaluate.node = node.name;
+        evaluate.begin();
+        evaluating[node.index] = evaluate;
+        final NodeCompletion completion = new NodeCompletion();
+        completion.graph = graph;
+        completion.node = node.name;
+        completion.begin();
+        completing[node.index] = completion;
+    }
+
+    void evaluateStopped(BoltPlan.Node node) {
+        final NodeEvaluate evaluate = evaluating[node.index];
+        if (evaluate != null) {
+            evaluate.commit();
+        }
+    }
+
+    void completed(BoltPlan.Node node, Throwable failure) {
+        final NodeCompletion completion = completing[node.index];
+        if (completion != null) {
+            completion.succeeded = failure == null;
+            completion.failure = failure == null ? null : failure.getClass().getName();
+            completion.commit();
+        }
+    }
+
+    void aborted(BoltPlan.Node node, String reason) {
+        final NodeQueued wait = queued[node.index];
+        if (wait != null) {
+            wait.commit();
+        }
+        final NodeAborted event = new NodeAborted();
+        event.graph = graph;
+        event.node = node.name;
+        event.reason = reason;
+        event.commit();
+    }
+
+    @Name("com.yibo.bolt.GraphExecution")
+    @Label("Bolt Graph Execution")
+    @Category("Bolt")
+    @StackTrace(false)
+    static final class GraphExecution extends Event {
+
+        @Label("Graph")
+        String graph;
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        @Label("Failure")
+        String failure;
+    }
+
+    @Name("com.yibo.bolt.NodeQueued")
+    @Label("Bolt Node Queued")
+    @Category("Bolt")
+    @StackTrace(false)
+    static final class NodeQueued extends Event {
+
+        @Label("Graph")
+        String graph;
+
+        @Label("Node")
+        String node;
+    }
+
+    @Name("com.yibo.bolt.NodeEvaluate")
+    @Label("Bolt Node Evaluate")
+    @Category("Bolt")
+    @StackTrace(false)
+    static final class NodeEvaluate extends Event {
+
+        @Label("Graph")
+        String graph;
+
+        @Label("Node")
+        String node;
+    }
+
+    @Name("com.yibo.bolt.NodeCompletion")
+    @Label("Bolt Node Completion")
+    @Category("Bolt")
+    @StackTrace(false)
+    static final class NodeCompletion extends Event {
+
+        @Label("Graph")
+        String graph;
+
+        @Label("Node")
+        String node;
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        @Label("Failure")
+        String failure;
+    }
+
+    @Name("com.yibo.bolt.NodeAborted")
+    @Label("Bolt Node Aborted")
+    @Category("Bolt")
+    @StackTrace(false)
+    static final class NodeAborted extends Event {
+
+        @Label("Graph")
+        String graph;
+
+        @Label("Node")
+        String node;
+
+        @Label("Reason")
+        String reason;
+    }
+}
@@ -0,0 +1,179 @@
+package com.yibo.common.bolt;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.yibo.common.monitor.MetricsHolder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * 按监控名（{@link Bolt#metricName()}）共享的自适应并发限制，算法参考TCP Vegas。
+ * 监控名相同的Bolt的限制配置必须相同；没有监控名的Bolt每个节点单独限制，也不记录指标。
+ * <p>
+ * 以观察到的最小耗时作为没有排队时的耗时 rttNoLoad，每次调用完成后估算下游的排队长度
+ * queue = limit * (1 - rttNoLoad / rtt)：排队少时调大限制，排队多或者超时时调小限制。
+ * 耗时从依赖就绪开始算，包含在executor中的排队时间。
+ * 每隔 30 * limit 次调用用当前耗时重置 rttNoLoad，避免下游基线变慢后限制一直偏小。
+ * <p>
+ * 超过限制的调用在提交到executor之前直接失败，见 {@link BoltContext}。
+ * <p>
+ * 指标:
+ * <ul>
+ * <li>bolt.{name}.limit: 当前的并发限制</li>
+ * <li>bolt.{name}.inflight: 正在排队和执行的调用数</li>
+ * <li>bolt.{name}.rejected: 超过限制被拒绝的调用</li>
+ * </ul>
+ */
+final class BoltLimiter {
+
+    private static final ConcurrentMap<String, BoltLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private static final int PROBE_MULTIPLIER = 30;
+
+    private final int initialLimit;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private volatile int limit;
+
+    private final Meter rejected;
+
+    /**
+     * 以下状态只在当前对象的锁内读写
+     */
+    private long rttNoLoad;
+
+    private int probeCount;
+
+    private BoltLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        checkArgument(minLimit > 0 && minLimit <= maxLimit, "invalid concurrency limit range [%s, %s] of %s", minLimit, maxLimit, name);
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+        if (name == null) {
+            this.rejected = new Meter();
+            return;
+        }
+        this.rejected = MetricsHolder.meter(MetricRegistry.name(BoltMetrics.PREFIX, name, "rejected"));
+        MetricsHolder.getMetricRegistry().gauge(MetricRegistry.name(BoltMetrics.PREFIX, name, "limit"),
+                () -> (Gauge<Integer>) () -> limit);
+        MetricsHolder.getMetricRegistry().gauge(MetricRegistry.name(BoltMetrics.PREFIX, name, "inflight"),
+                () -> (Gauge<Integer>) inflight::get);
+    }
+
+    /**
+     * @throws IllegalArgumentException 同一个监控名的Bolt配置了不同的限制
+     */
+    static BoltLimiter of(ServiceBolt<?> bolt) {
+        final String name = bolt.metricName();
+        if (name == null) {
+            return new BoltLimiter(null, bolt.getInitialConcurrencyLimit(), bolt.getMinConcurrencyLimit(),
+                    bolt.getMaxConcurrencyLimit());
+        }
+        BoltLimiter limiter = LIMITERS.get(name);
+        if (limiter == null) {
+            limiter = LIMITERS.computeIfAbsent(name, key -> new BoltLimiter(key, bolt.getInitialConcurrencyLimit(),
+                    bolt.getMinConcurrencyLimit(), bolt.getMaxConcurrencyLimit()));
+        }
+        checkArgument(limiter.initialLimit == bolt.getInitialConcurrencyLimit()
+                        && limiter.minLimit == bolt.getMinConcurrencyLimit() && limiter.maxLimit == bolt.getMaxConcurrencyLimit(),
+                "Bolt %s has concurrency limit [%s, %s, %s], but another bolt with the same name uses [%s, %s, %s]", name,
+                bolt.getInitialConcurrencyLimit(), bolt.getMinConcurrencyLimit(), bolt.getMaxConcurrencyLimit(),
+                limiter.initialLimit, limiter.minLimit, limiter.maxLimit);
+        return limiter;
+    }
+
+    /**
+     * @return 被拒绝时节点的失败原因，不收集调用栈
+     */
+    RejectedExecutionException rejected(String boltName) {
+        return new Rejected(String.format("Bolt %s rejected by concurrency limit %d", boltName, limit));
+    }
+
+    /**
+     * @return false 表示超过了当前限制，调用方不能执行
+     */
+    boolean tryAcquire() {
+        while (true) {
+            final int current = inflight.get();
+            if (current >= limit) {
+                rejected.mark();
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 归还 {@link #tryAcquire()} 拿到的名额
+     *
+     * @param rttNanos 调用耗时，没有真正调用时为0，不参与限制的调整
+     * @param e        失败原因，超时视为下游过载
+     */
+    void release(long rttNanos, Throwable e) {
+        final int current = inflight.getAndDecrement();
+        if (rttNanos > 0) {
+            update(rttNanos, current, e instanceof TimeoutException);
+        }
+    }
+
+    private synchronized void update(long rtt, int inflight, boolean dropped) {
+        final int current = limit;
+        if (++probeCount >= PROBE_MULTIPLIER * current) {
+            probeCount = 0;
+            rttNoLoad = rtt;
+            return;
+        }
+        if (rttNoLoad == 0 || rtt < rttNoLoad) {
+            rttNoLoad = rtt;
+            return;
+        }
+
+        final int log = Math.max(1, (int) Math.log10(current));
+        final int next;
+        if (dropped) {
+            next = current - log;
+        } else if (inflight * 2 < current) {
+            // 调用量本身不够，耗时说明不了限制是否合适
+            return;
+        } else {
+            final int queue = (int) Math.ceil(current * (1 - (double) rttNoLoad / rtt));
+            if (queue <= log) {
+                next = current + 6 * log;
+            } else if (queue < 3 * log) {
+                next = current + log;
+            } else if (queue > 6 * log) {
+                next = current - log;
+            } else {
+                return;
+            }
+        }
+        limit = Math.min(maxLimit, Math.max(minLimit, next));
+    }
+
+    private static final class Rejected extends RejectedExecutionException {
+
+        Rejected(String message) {
+            super(message);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
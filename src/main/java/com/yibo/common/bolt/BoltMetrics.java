@@ -0,0 +1,79 @@
+package com.yibo.common.bolt;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.yibo.common.monitor.MetricsHolder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个Bolt的监控指标，编译执行计划时按 {@link Bolt#metricName()} 解析一次，执行时直接使用。
+ * <p>
+ * 指标名为 bolt.{name}.{指标}:
+ * <ul>
+ * <li>queue: 依赖就绪提交到executor，到开始执行 {@link Bolt#evaluate()} 的排队时间</li>
+ * <li>evaluate: {@link Bolt#evaluate()} 同步执行的时间</li>
+ * <li>complete: 从开始执行 {@link Bolt#evaluate()} 到异步结果就绪的时间</li>
+ * <li>success/failure/aborted: 执行成功、失败、因图结束而跳过的次数</li>
+ * </ul>
+ */
+final class BoltMetrics {
+
+    static final String PREFIX = "bolt";
+
+    private final Timer queue;
+
+    private final Timer evaluate;
+
+    private final Timer complete;
+
+    private final Counter success;
+
+    private final Counter failure;
+
+    private final Counter aborted;
+
+    private BoltMetrics(String name) {
+        this.queue = MetricsHolder.timer(MetricRegistry.name(PREFIX, name, "queue"));
+        this.evaluate = MetricsHolder.timer(MetricRegistry.name(PREFIX, name, "evaluate"));
+        this.complete = MetricsHolder.timer(MetricRegistry.name(PREFIX, name, "complete"));
+        this.success = MetricsHolder.counter(MetricRegistry.name(PREFIX, name, "success"));
+        this.failure = MetricsHolder.counter(MetricRegistry.name(PREFIX, name, "failure"));
+        this.aborted = MetricsHolder.counter(MetricRegistry.name(PREFIX, name, "aborted"));
+    }
+
+    /**
+     * @param bolt 节点
+     * @return 节点没有稳定名字时返回null，不创建任何指标
+     */
+    static BoltMetrics of(Bolt bolt) {
+        final String name = bolt.metricName();
+        return name == null ? null : new BoltMetrics(name);
+    }
+
+    void evaluated(long readyNanos, long evaluateStartNanos, long evaluateStopNanos) {
+        queue.update(evaluateStartNanos - readyNanos, TimeUnit.NANOSECONDS);
+        evaluate.update(evaluateStopNanos - evaluateStartNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void completed(long evaluateStartNanos, long stopNanos, boolean succeeded) {
+        complete.update(stopNanos - evaluateStartNanos, TimeUnit.NANOSECONDS);
+        if (succeeded) {
+            success.inc();
+        } else {
+            failure.inc();
+        }
+    }
+
+    void aborted() {
+        aborted.inc();
+    }
+
+    /**
+     * @return 从开始执行到结果就绪的耗时
+     */
+    Timer latency() {
+        return complete;
+    }
+}
@@ -0,0 +1,375 @@
+package com.yibo.common.bolt;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.yibo.common.monitor.MetricsHolder;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * 编译好的Bolt执行计划。
+ * <p>
+ * 从根节点出发遍历一次依赖、分支和sink关系，校验无环后按拓扑序展开成扁平的节点数组，编译完成后只读。
+ * 每次执行只需要创建一个 {@link BoltContext} 来保存结果槽位，不再重复创建Bolt、也不再递归发现依赖。
+ * <p>
+ * 节点下标即拓扑序：任何节点的依赖和分支的下标都小于它自己。
+ */
+final class BoltPlan {
+
+    private static final int[] EMPTY = new int[0];
+
+    private static final Timed[] NO_TIMED = new Timed[0];
+
+    private final Node[] nodes;
+
+    private final Map<Bolt, Integer> indexes;
+
+    private final int root;
+
+    /**
+     * 所有节点有时间预算的依赖总数，每个占 {@link BoltContext} 中的一个槽位
+     */
+    private final int timedSlots;
+
+    /**
+     * 根节点通过依赖和分支能到达的节点，不包含只被sink用到的节点
+     */
+    private final boolean[] mainline;
+
+    /**
+     * 主线上的 {@link StreamingBolt} 节点，图结束时取消没有被消费的流
+     */
+    private final int[] streams;
+
+    private BoltPlan(Node[] nodes, Map<Bolt, Integer> indexes, int root, int timedSlots) {
+        this.nodes = nodes;
+        this.indexes = indexes;
+        this.root = root;
+        this.timedSlots = timedSlots;
+        this.mainline = new boolean[nodes.length];
+        mainline[root] = true;
+        for (int i = root; i >= 0; i--) {
+            if (!mainline[i]) {
+                continue;
+            }
+            for (int dep : nodes[i].required) {
+                mainline[dep] = true;
+            }
+            for (int dep : nodes[i].optional) {
+                mainline[dep] = true;
+            }
+            for (Timed dep : nodes[i].timed) {
+                mainline[dep.dependency] = true;
+            }
+            for (int branch : nodes[i].branches) {
+                mainline[branch] = true;
+            }
+        }
+        final List<Integer> streams = Lists.newArrayList();
+        for (int i = 0; i < nodes.length; i++) {
+            if (mainline[i] && nodes[i].bolt instanceof StreamingBolt) {
+                streams.add(i);
+            }
+        }
+        this.streams = Node.toArray(streams);
+    }
+
+    /**
+     * 编译以 root 为根的Bolt图
+     *
+     * @param root 根节点
+     * @return 执行计划
+     * @throws IllegalStateException 图中存在环
+     */
+    static BoltPlan compile(Bolt<?> root) {
+        checkNotNull(root, "root bolt must not be null.");
+
+        // 1. 按依赖、分支在前的顺序做后序遍历，得到拓扑序，同时检查环
+        final List<Bolt> ordered = Lists.newArrayList();
+        final Map<Bolt, Boolean> visiting = new IdentityHashMap<>();
+        final List<Bolt> pending = Lists.newArrayList();
+        pending.add(root);
+        for (int i = 0; i < pending.size(); i++) {
+            sort(pending.get(i), ordered, visiting, pending, Lists.<Bolt>newArrayList());
+        }
+
+        final Map<Bolt, Integer> indexes = new IdentityHashMap<>(ordered.size() * 2);
+        for (int i = 0; i < ordered.size(); i++) {
+            indexes.put(ordered.get(i), i);
+        }
+
+        // 2. 生成节点描述
+        final Node[] nodes = new Node[ordered.size()];
+        int timedSlots = 0;
+        for (int i = 0; i < ordered.size(); i++) {
+            nodes[i] = new Node(i, ordered.get(i), indexes, timedSlots);
+            timedSlots += nodes[i].timed.length;
+            ordered.get(i).markCompiled();
+        }
+
+        // 3. 每个节点被激活时需要一起启动的依赖闭包，下标升序即拓扑序
+        final BitSet closure = new BitSet(nodes.length);
+        for (Node node : nodes) {
+            closure.clear();
+            closure.set(node.index);
+            for (int i = node.index; i >= 0; i--) {
+                if (!closure.get(i)) {
+                    continue;
+                }
+                for (int dep : nodes[i].required) {
+                    closure.set(dep);
+                }
+                for (int dep : nodes[i].optional) {
+                    closure.set(dep);
+                }
+                for (Timed dep : nodes[i].timed) {
+                    closure.set(dep.dependency);
+                }
+            }
+            final int[] activation = new int[closure.cardinality()];
+            for (int i = closure.nextSetBit(0), n = 0; i >= 0; i = closure.nextSetBit(i + 1)) {
+                activation[n++] = i;
+            }
+            node.activation = activation;
+        }
+
+        return new BoltPlan(nodes, Collections.unmodifiableMap(indexes), indexes.get(root), timedSlots);
+    }
+
+    private static void sort(Bolt bolt, List<Bolt> ordered, Map<Bolt, Boolean> visiting,
+                             List<Bolt> pending, List<Bolt> path) {
+        final Boolean state = visiting.get(bolt);
+        if (Boolean.FALSE.equals(state)) {
+            return;
+        }
+        path.add(bolt);
+        if (Boolean.TRUE.equals(state)) {
+            throw new IllegalStateException("Bolt graph has a cycle: " + describe(path));
+        }
+        visiting.put(bolt, Boolean.TRUE);
+        for (Object dep : bolt.dependencies().values()) {
+            sort((Bolt) dep, ordered, visiting, pending, path);
+        }
+        for (Object branch : bolt.branches()) {
+            sort((Bolt) branch, ordered, visiting, pending, path);
+        }
+        // sink 不参与排序，只在当前节点成功后异步激活
+        for (Object sink : bolt.sinkBolts()) {
+            checkNotNull(sink, "sink bolt of %s must not be null.", bolt.getName());
+            pending.add((Bolt) sink);
+        }
+        visiting.put(bolt, Boolean.FALSE);
+        ordered.add(bolt);
+        path.remove(path.size() - 1);
+    }
+
+    private static String describe(List<Bolt> path) {
+        final StringBuilder sb = new StringBuilder();
+        for (Bolt bolt : path) {
+            if (sb.length() > 0) {
+                sb.append(" -> ");
+            }
+            sb.append(bolt.getName());
+        }
+        return sb.toString();
+    }
+
+    int size() {
+        return nodes.length;
+    }
+
+    int root() {
+        return root;
+    }
+
+    int timedSlots() {
+        return timedSlots;
+    }
+
+    Node node(int index) {
+        return nodes[index];
+    }
+
+    boolean isMainline(int index) {
+        return mainline[index];
+    }
+
+    int[] streams() {
+        return streams;
+    }
+
+    /**
+     * @return bolt 在计划中的下标，不在计划中时返回 -1
+     */
+    int indexOf(Bolt bolt) {
+        final Integer index = indexes.get(bolt);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * 执行计划中的一个节点，只保存结构信息，不保存任何执行状态
+     */
+    static final class Node {
+
+        final int index;
+
+        final Bolt bolt;
+
+        final String name;
+
+        /**
+         * 依赖名 -> 依赖节点下标
+         */
+        final ImmutableMap<Enum, Integer> dependencies;
+
+        final int[] required;
+
+        final int[] optional;
+
+        /**
+         * 有时间预算的依赖，不参与就绪判断，等待的是 {@link BoltContext} 中按时间预算包装过的结果
+         */
+        final Timed[] timed;
+
+        final int[] sinks;
+
+        /**
+         * 执行中按条件启动的分支
+         */
+        final int[] branches;
+
+        final Executor executor;
+
+        /**
+         * 在完成依赖的线程上直接执行
+         */
+        final boolean direct;
+
+        /**
+         * 没有稳定名字的节点为null
+         */
+        final BoltMetrics metrics;
+
+        /**
+         * 没有设置对冲时为null
+         */
+        final BoltHedger hedger;
+
+        /**
+         * 没有并发限制时为null，按Bolt类共享
+         */
+        final BoltLimiter limiter;
+
+        /**
+         * 没有设置熔断时为null，按Bolt名字共享
+         */
+        final BoltBreaker breaker;
+
+        /**
+         * 激活当前节点时需要启动的节点（含自身），按拓扑序排列
+         */
+        int[] activation = EMPTY;
+
+        private Node(int index, Bolt bolt, Map<Bolt, Integer> indexes, int timedSlot) {
+            this.index = index;
+            this.bolt = bolt;
+            this.name = bolt.getName();
+            this.executor = bolt.executor();
+            this.direct = executor == BoltScheduler.DIRECT;
+            this.metrics = BoltMetrics.of(bolt);
+            this.hedger = bolt.hedgePolicy() == null ? null : new BoltHedger(bolt.hedgePolicy(), this);
+            this.limiter = bolt.limiter();
+            this.breaker = BoltBreaker.of(bolt);
+
+            final Map<Enum, Bolt> deps = bolt.dependencies();
+            final ImmutableMap.Builder<Enum, Integer> builder = ImmutableMap.builder();
+            final List<Integer> required = Lists.newArrayListWithExpectedSize(deps.size());
+            final List<Integer> optional = Lists.newArrayListWithExpectedSize(deps.size());
+            final List<Timed> timed = Lists.newArrayList();
+            final Map<Enum, Bolt.DependencyTimeout> timeouts = bolt.timeouts();
+            for (Map.Entry<Enum, Bolt> item : deps.entrySet()) {
+                final Integer dep = indexes.get(item.getValue());
+                builder.put(item.getKey(), dep);
+                final Bolt.DependencyTimeout timeout = timeouts.get(item.getKey());
+                if (timeout != null) {
+                    // 不记录监控的Bolt使用不注册的计数器，避免按节点名生成监控项
+                    final String metricName = bolt.metricName();
+                    timed.add(new Timed(item.getKey(), dep, timedSlot + timed.size(), timeout, metricName == null ? new Counter()
+                            : MetricsHolder.counter(MetricRegistry.name(BoltMetrics.PREFIX, metricName, "timeout", item.getKey().name()))));
+                } else if (bolt.optionals().contains(item.getKey())) {
+                    optional.add(dep);
+                } else {
+                    required.add(dep);
+                }
+            }
+            this.dependencies = builder.build();
+            this.required = toArray(required);
+            this.optional = toArray(optional);
+            this.timed = timed.isEmpty() ? NO_TIMED : timed.toArray(new Timed[timed.size()]);
+
+            final List<Bolt> sinkBolts = bolt.sinkBolts();
+            final List<Integer> sinks = Lists.newArrayListWithExpectedSize(sinkBolts.size());
+            for (Bolt sink : sinkBolts) {
+                sinks.add(indexes.get(sink));
+            }
+            this.sinks = toArray(sinks);
+
+            final List<Bolt> branchBolts = bolt.branches();
+            final List<Integer> branches = Lists.newArrayListWithExpectedSize(branchBolts.size());
+            for (Bolt branch : branchBolts) {
+                branches.add(indexes.get(branch));
+            }
+            this.branches = toArray(branches);
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            if (list.isEmpty()) {
+                return EMPTY;
+            }
+            final int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+    }
+
+    /**
+     * 有时间预算的依赖
+     */
+    static final class Timed {
+
+        final Enum name;
+
+        final int dependency;
+
+        /**
+         * 在 {@link BoltContext} 中的槽位
+         */
+        final int slot;
+
+        final long timeoutNanos;
+
+        final Object fallback;
+
+        final Counter timeouts;
+
+        private Timed(Enum name, int dependency, int slot, Bolt.DependencyTimeout timeout, Counter timeouts) {
+            this.name = name;
+            this.dependency = dependency;
+            this.slot = slot;
+            this.timeoutNanos = timeout.timeoutNanos;
+            this.fallback = timeout.fallback;
+            this.timeouts = timeouts;
+        }
+    }
+}
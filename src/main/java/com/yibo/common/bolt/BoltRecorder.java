@@ -0,0 +1,147 @@
+package com.yibo.common.bolt;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.yibo.common.monitor.MetricsHolder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 一类Bolt图的飞行记录器，保存最近被采样的执行和最近慢于 p99 的执行，各 {@link #CAPACITY} 条。
+ * <p>
+ * 两个无锁的环形缓冲，写入只有一次自增和一次数组写。不需要记录的执行只做一次耗时比较，不分配对象；
+ * 需要记录时才在图完成的线程上把 {@link BoltContext} 中的时间点拷贝成 {@link BoltExecution}。
+ */
+final class BoltRecorder {
+
+    static final int CAPACITY = 64;
+
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 图的耗时样本少于这个数时不判断慢执行
+     */
+    private static final long MIN_SAMPLES = 100;
+
+    private final String graphName;
+
+    private final Timer latency;
+
+    private final Ring sampled = new Ring();
+
+    private final Ring slow = new Ring();
+
+    private volatile long thresholdNanos = Long.MAX_VALUE;
+
+    private final AtomicLong refreshAt = new AtomicLong(System.nanoTime());
+
+    BoltRecorder(String graphName) {
+        this.graphName = graphName;
+        this.latency = MetricsHolder.timer(MetricRegistry.name(CriticalPath.PREFIX, graphName, "latency"));
+    }
+
+    /**
+     * @param failure 图失败的原因，成功时为null
+     * @param sample  是否被采样
+     */
+    void record(BoltContext context, BoltPlan plan, Throwable failure, boolean sample) {
+        final long now = System.nanoTime();
+        final long elapsed = now - context.getCreatedNanos();
+        refresh(now);
+        if (elapsed >= thresholdNanos) {
+            slow.add(snapshot(context, plan, failure, elapsed, "slow"));
+        } else if (sample) {
+            sampled.add(snapshot(context, plan, failure, elapsed, "sampled"));
+        }
+    }
+
+    /**
+     * @return 采样的执行，新的在前
+     */
+    List<BoltExecution> sampled() {
+        return sampled.list();
+    }
+
+    /**
+     * @return 慢执行，新的在前
+     */
+    List<BoltExecution> slow() {
+        return slow.list();
+    }
+
+    private void refresh(long now) {
+        final long at = refreshAt.get();
+        if (now - at < 0 || !refreshAt.compareAndSet(at, now + REFRESH_NANOS)) {
+            return;
+        }
+        thresholdNanos = latency.getCount() < MIN_SAMPLES ? Long.MAX_VALUE : (long) latency.getSnapshot().get99thPercentile();
+    }
+
+    private BoltExecution snapshot(BoltContext context, BoltPlan plan, Throwable failure, long elapsed, String reason) {
+        final List<BoltExecution.Node> nodes = Lists.newArrayListWithExpectedSize(plan.size());
+        for (int i = 0; i < plan.size(); i++) {
+            if (!context.isStarted(i)) {
+                continue;
+            }
+            final BoltPlan.Node node = plan.node(i);
+            final Thread thread = context.getThread(i);
+            final Throwable error = context.getFailure(i);
+            List<String> timedOut = null;
+            final long ready = context.getNanos(i, BoltContext.READY);
+            for (BoltPlan.Timed item : node.timed) {
+                final long stop = context.getNanos(item.dependency, BoltContext.STOP);
+                if (ready != 0 && (stop == 0 || stop > ready)) {
+                    if (timedOut == null) {
+                        timedOut = Lists.newArrayListWithExpectedSize(node.timed.length);
+                    }
+                    timedOut.add(item.name.name());
+                }
+            }
+            String branch = null;
+            for (int b : node.branches) {
+                if (context.isStarted(b)) {
+                    branch = plan.node(b).name;
+                    break;
+                }
+            }
+            nodes.add(new BoltExecution.Node(node.name, micros(context, i, BoltContext.READY),
+                    micros(context, i, BoltContext.EVALUATE_START), micros(context, i, BoltContext.STOP),
+                    thread == null ? null : thread.getName(), error == null ? null : error.toString(), timedOut, branch));
+        }
+        return new BoltExecution(graphName, context.getCreatedMillis(), TimeUnit.NANOSECONDS.toMicros(elapsed),
+                failure == null, failure == null ? null : failure.toString(), reason, ImmutableList.copyOf(nodes));
+    }
+
+    private static long micros(BoltContext context, int index, int type) {
+        final long nanos = context.getNanos(index, type);
+        return nanos == 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(nanos - context.getCreatedNanos());
+    }
+
+    private static final class Ring {
+
+        private final AtomicReferenceArray<BoltExecution> entries = new AtomicReferenceArray<>(CAPACITY);
+
+        private final AtomicLong sequence = new AtomicLong();
+
+        void add(BoltExecution execution) {
+            entries.set((int) (sequence.getAndIncrement() & (CAPACITY - 1)), execution);
+        }
+
+        List<BoltExecution> list() {
+            final long last = sequence.get();
+            final List<BoltExecution> list = Lists.newArrayListWithExpectedSize(CAPACITY);
+            for (long i = last - 1; i >= 0 && i >= last - CAPACITY; i--) {
+                final BoltExecution execution = entries.get((int) (i & (CAPACITY - 1)));
+                if (execution != null) {
+                    list.add(execution);
+                }
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.yibo.common.bolt;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yibo.common.monitor.BMonitor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * 按 {@link Workload} 给Bolt分配executor:
+ * <ul>
+ * <li>{@link Workload#CPU}: 所有Bolt共享一个ForkJoinPool，并行度为CPU核数</li>
+ * <li>{@link Workload#BLOCKING}: 每个bulkhead一个可监控的固定大小线程池，慢的下游只会占满自己的线程池，不会拖住其他Bolt。
+ * 没有声明bulkhead的Bolt共用 {@link #DEFAULT_BULKHEAD}。线程和等待队列都满时直接拒绝，节点以
+ * {@link java.util.concurrent.RejectedExecutionException} 失败，作为可选依赖时使用方拿到默认值；
+ * 空闲的线程超过60秒后退出</li>
+ * <li>{@link Workload#TRIVIAL}: 在完成依赖的线程上直接执行</li>
+ * </ul>
+ * bulkhead的线程池在第一次使用时创建，需要调整大小时在此之前调用 {@link #configureBulkhead(String, int, int)}
+ *
+ * @author yibo
+ */
+public final class BoltScheduler {
+
+    /**
+     * 线程池监控名前缀
+     */
+    private static final String METRIC_PREFIX = "bolt.bulkhead.";
+
+    /**
+     * 没有声明bulkhead时共用的线程池
+     */
+    public static final String DEFAULT_BULKHEAD = "default";
+
+    private static final int DEFAULT_THREADS = 16;
+
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+
+    /**
+     * {@link Workload#TRIVIAL} 共用的executor，执行引擎遇到它时直接在当前线程调用，不再提交任务
+     */
+    static final Executor DIRECT = MoreExecutors.sameThreadExecutor();
+
+    private static final ConcurrentMap<String, Executor> BULKHEADS = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, int[]> BULKHEAD_CONFIGS = new ConcurrentHashMap<>();
+
+    private BoltScheduler() {
+    }
+
+    /**
+     * 指定bulkhead线程池的大小，只对还没有创建的线程池生效
+     *
+     * @param bulkhead  名字
+     * @param threads   线程数
+     * @param queueSize 等待队列长度
+     */
+    public static void configureBulkhead(String bulkhead, int threads, int queueSize) {
+        checkNotNull(bulkhead, "bulkhead must not be null.");
+        checkArgument(threads > 0, "threads must be positive");
+        checkArgument(queueSize >= 0, "queueSize must not be negative");
+        BULKHEAD_CONFIGS.put(bulkhead, new int[]{threads, queueSize});
+    }
+
+    /**
+     * @param workload 负载类型
+     * @param bulkhead {@link Workload#BLOCKING} 使用的线程池名字
+     * @return 对应的executor
+     */
+    public static Executor executor(Workload workload, String bulkhead) {
+        checkNotNull(workload, "workload must not be null.");
+        switch (workload) {
+            case CPU:
+                return CpuPool.INSTANCE;
+            case BLOCKING:
+                checkNotNull(bulkhead, "bulkhead must not be null.");
+                return BULKHEADS.computeIfAbsent(bulkhead, BoltScheduler::createBulkhead);
+            default:
+                return DIRECT;
+        }
+    }
+
+    /**
+     * 编译执行计划时为没有指定executor的Bolt选择executor
+     */
+    static Executor executor(Bolt bolt) {
+        final Workload workload = bolt.workload();
+        return executor(workload, workload == Workload.BLOCKING ? bolt.bulkhead() : null);
+    }
+
+    private static Executor createBulkhead(String bulkhead) {
+        final int[] config = BULKHEAD_CONFIGS.get(bulkhead);
+        final int threads = config == null ? DEFAULT_THREADS : config[0];
+        final int queueSize = config == null ? DEFAULT_QUEUE_SIZE : config[1];
+        return BMonitor.createInstrumentedExecutorService(threads, threads, 60, TimeUnit.SECONDS,
+                queueSize == 0 ? new SynchronousQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(queueSize),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("bolt-" + bulkhead + "-%d").build(),
+                new ThreadPoolExecutor.AbortPolicy(), METRIC_PREFIX + bulkhead, true);
+    }
+
+    /**
+     * CPU线程池，第一次使用时才创建
+     */
+    private static final class CpuPool {
+
+        private static final ForkJoinPool INSTANCE = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                pool -> {
+                    final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("bolt-cpu-" + thread.getPoolIndex());
+                    return thread;
+                }, null, true);
+    }
+}
@@ -0,0 +1,323 @@
+package com.yibo.common.bolt;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * {@link StreamingBolt} 产出的有界数据块序列，一个生产者，一个消费者。
+ * <p>
+ * 生产者通过 {@link #offer(Object)} 发布数据块，缓冲区满时返回的future要等消费者取走数据后才完成，
+ * 生产者应该等它完成后再发布下一块（背压）；返回false表示消费者已经不需要更多数据，应该停止生产。
+ * 结束时调用 {@link #complete()} 或者 {@link #fail(Throwable)}。
+ * <p>
+ * 消费者通过 {@link #poll()} 逐块读取，或者用 {@link #reduce(Object, BiFunction, Predicate)} 增量地聚合，
+ * 聚合提前结束（比如已经凑够top-K）时会通知生产者停止。
+ *
+ * @param <T> 数据块
+ */
+public final class BoltStream<T> {
+
+    private static final ListenableFuture<Boolean> ACCEPTED = Futures.immediateFuture(Boolean.TRUE);
+
+    private static final ListenableFuture<Boolean> REJECTED = Futures.immediateFuture(Boolean.FALSE);
+
+    private final int capacity;
+
+    private final ArrayDeque<T> buffer;
+
+    /**
+     * 等待缓冲区空间的生产者
+     */
+    private SettableFuture<Boolean> space;
+
+    /**
+     * 等待数据的消费者
+     */
+    private SettableFuture<T> waiting;
+
+    private boolean completed;
+
+    private Throwable failure;
+
+    private boolean cancelled;
+
+    private boolean consumed;
+
+    BoltStream(int capacity) {
+        checkArgument(capacity > 0, "capacity must be positive.");
+        this.capacity = capacity;
+        this.buffer = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * 发布一个数据块
+     *
+     * @return 可以继续发布时完成，值为false表示消费者已经取消，不需要再生产
+     */
+    public ListenableFuture<Boolean> offer(T chunk) {
+        checkNotNull(chunk, "chunk must not be null.");
+        final SettableFuture<T> consumer;
+        final ListenableFuture<Boolean> result;
+        synchronized (this) {
+            if (cancelled) {
+                return REJECTED;
+            }
+            checkState(!completed && failure == null, "stream is already closed.");
+            checkState(space == null, "previous offer has not been accepted yet.");
+            consumer = waiting;
+            waiting = null;
+            if (consumer == null) {
+                buffer.add(chunk);
+            }
+            if (buffer.size() >= capacity) {
+                space = SettableFuture.create();
+                result = space;
+            } else {
+                result = ACCEPTED;
+            }
+        }
+        if (consumer != null) {
+            consumer.set(chunk);
+        }
+        return result;
+    }
+
+    /**
+     * 数据全部发布完成
+     */
+    public void complete() {
+        final SettableFuture<T> consumer;
+        synchronized (this) {
+            if (cancelled || completed || failure != null) {
+                return;
+            }
+            completed = true;
+            consumer = waiting;
+            waiting = null;
+        }
+        if (consumer != null) {
+            consumer.set(null);
+        }
+    }
+
+    /**
+     * 生产失败，消费者读完缓冲区中的数据后得到这个异常
+     */
+    public void fail(Throwable cause) {
+        checkNotNull(cause, "cause must not be null.");
+        final SettableFuture<T> consumer;
+        synchronized (this) {
+            if (cancelled || completed || failure != null) {
+                return;
+            }
+            failure = cause;
+            consumer = waiting;
+            waiting = null;
+        }
+        if (consumer != null) {
+            consumer.setException(cause);
+        }
+    }
+
+    /**
+     * @return 消费者是否已经取消
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 读取下一个数据块，开始读取后不能再调用 {@link #reduce}
+     *
+     * @return 下一个数据块，序列结束时为null，生产失败时失败
+     */
+    public ListenableFuture<T> poll() {
+        final SettableFuture<Boolean> producer;
+        final T chunk;
+        synchronized (this) {
+            checkState(waiting == null, "previous poll has not completed yet.");
+            consumed = true;
+            chunk = buffer.poll();
+            if (chunk == null) {
+                if (failure != null) {
+                    return Futures.immediateFailedFuture(failure);
+                }
+                if (completed || cancelled) {
+                    return Futures.immediateFuture(null);
+                }
+                waiting = SettableFuture.create();
+                return waiting;
+            }
+            producer = space;
+            space = null;
+        }
+        if (producer != null) {
+            producer.set(Boolean.TRUE);
+        }
+        return Futures.immediateFuture(chunk);
+    }
+
+    /**
+     * 不再需要更多数据，丢弃缓冲区，通知生产者停止
+     */
+    public void cancel() {
+        final SettableFuture<Boolean> producer;
+        final SettableFuture<T> consumer;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            buffer.clear();
+            producer = space;
+            space = null;
+            consumer = waiting;
+            waiting = null;
+        }
+        if (producer != null) {
+            producer.set(Boolean.FALSE);
+        }
+        if (consumer != null) {
+            consumer.set(null);
+        }
+    }
+
+    /**
+     * 图结束时还没有开始消费的流不会再有人读取，取消掉，让等待缓冲区空间的生产者停止
+     */
+    void cancelIfUnconsumed() {
+        synchronized (this) {
+            if (consumed) {
+                return;
+            }
+        }
+        cancel();
+    }
+
+    /**
+     * 增量聚合所有数据块
+     */
+    public <R> ListenableFuture<R> reduce(R initial, BiFunction<R, ? super T, R> reducer) {
+        return reduce(initial, reducer, null);
+    }
+
+    /**
+     * 增量聚合数据块，until 满足时提前结束并通知生产者停止
+     *
+     * @param initial 初始值
+     * @param reducer 聚合函数
+     * @param until   提前结束的条件，为null时读完所有数据
+     * @return 聚合结果，取消它会通知生产者停止
+     */
+    public <R> ListenableFuture<R> reduce(R initial, final BiFunction<R, ? super T, R> reducer,
+                                          final Predicate<? super R> until) {
+        checkNotNull(reducer, "reducer must not be null.");
+        synchronized (this) {
+            checkState(!consumed, "stream can only be consumed once.");
+            consumed = true;
+        }
+        final SettableFuture<R> result = SettableFuture.create();
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled()) {
+                    cancel();
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        new Reduction<>(result, reducer, until).next(initial);
+        return result;
+    }
+
+    /**
+     * @return 所有数据块
+     */
+    public ListenableFuture<List<T>> toList() {
+        return reduce(Lists.<T>newArrayList(), (list, chunk) -> {
+            list.add(chunk);
+            return list;
+        });
+    }
+
+    /**
+     * 数据块同步可得时在循环中处理，需要等待时注册回调，避免递归过深
+     */
+    private final class Reduction<R> {
+
+        private final SettableFuture<R> result;
+
+        private final BiFunction<R, ? super T, R> reducer;
+
+        private final Predicate<? super R> until;
+
+        private Reduction(SettableFuture<R> result, BiFunction<R, ? super T, R> reducer, Predicate<? super R> until) {
+            this.result = result;
+            this.reducer = reducer;
+            this.until = until;
+        }
+
+        private void next(R acc) {
+            while (!result.isDone()) {
+                final ListenableFuture<T> next = poll();
+                if (!next.isDone()) {
+                    final R current = acc;
+                    Futures.addCallback(next, new FutureCallback<T>() {
+                        @Override
+                        public void onSuccess(T chunk) {
+                            next(apply(current, chunk));
+                        }
+
+                        @Override
+                        public void onFailure(Throwable t) {
+                            result.setException(t);
+                        }
+                    });
+                    return;
+                }
+                try {
+                    acc = apply(acc, getUninterruptibly(next));
+                } catch (ExecutionException e) {
+                    result.setException(e.getCause());
+                }
+            }
+        }
+
+        /**
+         * 聚合一个数据块，序列结束、满足提前结束条件或者聚合失败时设置结果
+         */
+        private R apply(R acc, T chunk) {
+            if (chunk == null) {
+                result.set(acc);
+                return acc;
+            }
+            final R reduced;
+            try {
+                reduced = reducer.apply(acc, chunk);
+            } catch (Throwable e) {
+                cancel();
+                result.setException(e);
+                return acc;
+            }
+            if (until != null && until.test(reduced)) {
+                cancel();
+                result.set(reduced);
+            }
+            return reduced;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.yibo.common.bolt;
+
+import brave.Span;
+import brave.Tracer;
+import brave.Tracing;
+import brave.propagation.TraceContext;
+
+/**
+ * Bolt和brave链路追踪的衔接。
+ * <p>
+ * 是否采样只在图开始执行时、在调用方线程上判断一次：调用方当前的span被采样时，记下它的 {@link TraceContext}
+ * 作为本次执行所有节点span的父节点。节点可能在任意executor的线程上执行，不能依赖那个线程上的当前span。
+ * 没有当前span或者没有被采样时，整个执行都不创建span。
+ */
+final class BoltTracing {
+
+    private BoltTracing() {
+    }
+
+    /**
+     * @return 调用方线程上被采样的当前span，不需要追踪时返回null
+     */
+    static TraceContext capture() {
+        final Tracing tracing = Tracing.current();
+        if (tracing == null) {
+            return null;
+        }
+        final Span span = tracing.tracer().currentSpan();
+        if (span == null || span.isNoop()) {
+            return null;
+        }
+        return span.context();
+    }
+
+    /**
+     * @return 当前的tracer，tracing已经关闭时返回null
+     */
+    static Tracer tracer() {
+        final Tracing tracing = Tracing.current();
+        return tracing == null ? null : tracing.tracer();
+    }
+}
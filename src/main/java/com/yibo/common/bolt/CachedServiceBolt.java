@@ -0,0 +1,74 @@
+package com.yibo.common.bolt;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * 结果可以跨请求缓存的ServiceBolt，适合配置、门店信息等变化很慢的数据。
+ * <p>
+ * {@link #evaluate()} 中先通过 {@link #cacheKey()} 由依赖计算缓存key，再从缓存中取值，未命中时调用 {@link #load(Object)}。
+ * 缓存按Bolt类共享，有大小上限和过期时间，同一个key的并发未命中只会加载一次。
+ * 缓存在这个类第一次执行时创建，之后所有图中同类的实例都使用第一个实例的 {@link #load(Object)}、服务和缓存配置，
+ * 所以同一个类的实例之间不能有区别，需要不同配置时请定义不同的子类。
+ * <p>
+ * {@link #load(Object)} 可能在缓存刷新时于生命周期之外被调用，所以只能使用key和 {@link #getService(Class)} 等服务，
+ * 不能调用 {@link #getDep(Enum)}。
+ *
+ * @param <K> 缓存key，需要实现equals和hashCode
+ * @param <O> 结果
+ */
+public abstract class CachedServiceBolt<K, O> extends ServiceBolt<O> {
+
+    private static final ConcurrentMap<Class<?>, BoltCache<?, ?>> CACHES = new ConcurrentHashMap<>();
+
+    @Override
+    protected final ListenableFuture<O> evaluate() throws Exception {
+        final K key = cacheKey();
+        checkNotNull(key, "Bolt %s cacheKey() returned null!", getName());
+        return cache().get(key);
+    }
+
+    /**
+     * 根据依赖计算缓存key
+     */
+    protected abstract K cacheKey() throws Exception;
+
+    /**
+     * 加载key对应的值
+     */
+    protected abstract ListenableFuture<O> load(K key) throws Exception;
+
+    /**
+     * 缓存的最大条数
+     */
+    protected long getCacheMaximumSize() {
+        return 1024L;
+    }
+
+    /**
+     * 写入后多久过期，过期后必须重新加载
+     */
+    protected long getCacheTtlMillis() {
+        return 60000L;
+    }
+
+    /**
+     * 写入后多久开始后台刷新，刷新完成前继续返回旧值。0 表示不刷新，需要小于 {@link #getCacheTtlMillis()} 才有意义
+     */
+    protected long getCacheRefreshMillis() {
+        return 0L;
+    }
+
+    private BoltCache<K, O> cache() {
+        BoltCache<?, ?> cache = CACHES.get(getClass());
+        if (cache == null) {
+            cache = CACHES.computeIfAbsent(getClass(), clazz -> new BoltCache<>(this, getName(),
+                    getCacheMaximumSize(), getCacheTtlMillis(), getCacheRefreshMillis()));
+        }
+        return (BoltCache<K, O>) cache;
+    }
+}
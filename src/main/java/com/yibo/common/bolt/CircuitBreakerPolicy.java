@@ -0,0 +1,157 @@
+package com.yibo.common.bolt;
+
+import com.google.common.base.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * 熔断策略，通过 {@link Bolt.Builder#withCircuitBreaker(CircuitBreakerPolicy)} 设置，适合依赖不稳定后端的ServiceBolt。
+ * <p>
+ * 最近 {@link #window(int, int)} 次调用中失败或慢调用的比例超过阈值时熔断，熔断期间直接失败或者返回兜底值，
+ * 不提交到executor、也不调用 {@link Bolt#evaluate()}。熔断 {@link #openDuration(long, TimeUnit)} 之后放行
+ * {@link #halfOpenCalls(int)} 次探测调用，探测调用的比例不超过阈值时恢复，否则继续熔断。
+ * <p>
+ * 熔断状态按 {@link Bolt#metricName()} 共享，每次请求新建的图也使用同一个熔断状态；监控名相同的Bolt必须使用相同的策略。
+ * <p>
+ * 策略不可变，with方法返回新的策略。
+ *
+ * @author yibo
+ */
+public final class CircuitBreakerPolicy {
+
+    private final double failureRateThreshold;
+
+    private final double slowCallRateThreshold;
+
+    private final long slowCallNanos;
+
+    private final int windowSize;
+
+    private final int minimumCalls;
+
+    private final long openNanos;
+
+    private final int halfOpenCalls;
+
+    private CircuitBreakerPolicy(double failureRateThreshold, double slowCallRateThreshold, long slowCallNanos,
+                                 int windowSize, int minimumCalls, long openNanos, int halfOpenCalls) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = slowCallNanos;
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.openNanos = openNanos;
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * 按失败率熔断。默认统计最近100次调用、至少20次才判断，熔断5秒后放行5次探测调用
+     *
+     * @param threshold 失败率阈值，(0, 1]
+     */
+    public static CircuitBreakerPolicy failureRate(double threshold) {
+        checkArgument(threshold > 0 && threshold <= 1, "failure rate threshold must be in (0, 1].");
+        return new CircuitBreakerPolicy(threshold, 0, 0, 100, 20, TimeUnit.SECONDS.toNanos(5), 5);
+    }
+
+    /**
+     * 同时按慢调用比例熔断
+     *
+     * @param threshold 慢调用比例阈值，(0, 1]
+     * @param duration  从开始执行到结果就绪超过这个时间算慢调用
+     */
+    public CircuitBreakerPolicy slowCallRate(double threshold, long duration, TimeUnit unit) {
+        checkArgument(threshold > 0 && threshold <= 1, "slow call rate threshold must be in (0, 1].");
+        checkArgument(duration > 0, "duration must be positive.");
+        checkNotNull(unit, "unit must not be null.");
+        return new CircuitBreakerPolicy(failureRateThreshold, threshold, unit.toNanos(duration),
+                windowSize, minimumCalls, openNanos, halfOpenCalls);
+    }
+
+    /**
+     * @param size         统计最近多少次调用
+     * @param minimumCalls 至少多少次调用才判断是否熔断
+     */
+    public CircuitBreakerPolicy window(int size, int minimumCalls) {
+        checkArgument(size > 0, "window size must be positive.");
+        checkArgument(minimumCalls > 0 && minimumCalls <= size, "minimumCalls must be in [1, size].");
+        return new CircuitBreakerPolicy(failureRateThreshold, slowCallRateThreshold, slowCallNanos,
+                size, minimumCalls, openNanos, halfOpenCalls);
+    }
+
+    /**
+     * 熔断多久之后开始探测
+     */
+    public CircuitBreakerPolicy openDuration(long duration, TimeUnit unit) {
+        checkArgument(duration > 0, "duration must be positive.");
+        checkNotNull(unit, "unit must not be null.");
+        return new CircuitBreakerPolicy(failureRateThreshold, slowCallRateThreshold, slowCallNanos,
+                windowSize, minimumCalls, unit.toNanos(duration), halfOpenCalls);
+    }
+
+    /**
+     * 探测时放行多少次调用
+     */
+    public CircuitBreakerPolicy halfOpenCalls(int calls) {
+        checkArgument(calls > 0, "calls must be positive.");
+        return new CircuitBreakerPolicy(failureRateThreshold, slowCallRateThreshold, slowCallNanos,
+                windowSize, minimumCalls, openNanos, calls);
+    }
+
+    int getWindowSize() {
+        return windowSize;
+    }
+
+    int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    long getOpenNanos() {
+        return openNanos;
+    }
+
+    int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    boolean isSlow(long nanos) {
+        return slowCallNanos > 0 && nanos >= slowCallNanos;
+    }
+
+    /**
+     * @return calls 次调用中的失败和慢调用是否超过阈值
+     */
+    boolean isExceeded(int calls, int failures, int slows) {
+        if (failures >= failureRateThreshold * calls) {
+            return true;
+        }
+        return slowCallRateThreshold > 0 && slows >= slowCallRateThreshold * calls;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CircuitBreakerPolicy)) {
+            return false;
+        }
+        final CircuitBreakerPolicy that = (CircuitBreakerPolicy) o;
+        return Double.compare(failureRateThreshold, that.failureRateThreshold) == 0
+                && Double.compare(slowCallRateThreshold, that.slowCallRateThreshold) == 0
+                && slowCallNanos == that.slowCallNanos
+                && windowSize == that.windowSize
+                && minimumCalls == that.minimumCalls
+                && openNanos == that.openNanos
+                && halfOpenCalls == that.halfOpenCalls;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(failureRateThreshold, slowCallRateThreshold, slowCallNanos, windowSize,
+                minimumCalls, openNanos, halfOpenCalls);
+    }
+}
@@ -0,0 +1,136 @@
+package com.yibo.common.bolt;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.yibo.common.monitor.MetricsHolder;
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 图执行的关键路径分析。
+ * <p>
+ * 图执行结束后，从根节点往回找：每个节点取最后完成的依赖作为前驱（分支节点取被选中的分支），
+ * 这条链就是决定总耗时的关键路径。路径上每个节点的贡献 = 自己的结束时间 - 前驱的结束时间，
+ * 所有贡献之和正好等于图的总耗时。
+ * <p>
+ * 指标:
+ * <ul>
+ * <li>boltgraph.{graph}.latency: 图的总耗时</li>
+ * <li>boltgraph.{graph}.critical.{bolt}: 节点出现在关键路径上的次数和贡献的耗时，没有稳定名字的节点不记录</li>
+ * </ul>
+ */
+final class CriticalPath {
+
+    static final String PREFIX = "boltgraph";
+
+    private final String graphName;
+
+    private final BoltPlan plan;
+
+    private final Timer latency;
+
+    private final Timer[] segments;
+
+    CriticalPath(String graphName, BoltPlan plan) {
+        this.graphName = graphName;
+        this.plan = plan;
+        this.latency = MetricsHolder.timer(MetricRegistry.name(PREFIX, graphName, "latency"));
+        this.segments = new Timer[plan.size()];
+        for (int i = 0; i < plan.size(); i++) {
+            final String name = plan.node(i).bolt.metricName();
+            if (name != null) {
+                segments[i] = MetricsHolder.timer(MetricRegistry.name(PREFIX, graphName, "critical", name));
+            }
+        }
+    }
+
+    /**
+     * 记录一次执行的关键路径，sampled 为true时额外输出一行日志
+     */
+    void record(BoltContext context, boolean succeeded, boolean sampled, Logger log) {
+        final int root = plan.root();
+        final long total = context.getNanos(root, BoltContext.STOP) - context.getCreatedNanos();
+        latency.update(total, TimeUnit.NANOSECONDS);
+
+        final StringBuilder path = sampled ? new StringBuilder() : null;
+        int current = root;
+        int activator = -1;
+        while (current >= 0) {
+            final BoltPlan.Node node = plan.node(current);
+            int previous = -1;
+            int branch = latest(context, node.branches, -1);
+            if (branch >= 0) {
+                // 分支节点在分支完成时才完成，分支本身在分支节点执行时才被启动
+                previous = branch;
+                activator = current;
+            } else {
+                previous = latest(context, node.required, previous);
+                previous = latest(context, node.optional, previous);
+                previous = latest(context, node.timed, context.getNanos(current, BoltContext.READY), previous);
+                if (activator >= 0 && (previous < 0
+                        || context.getNanos(previous, BoltContext.STOP) < context.getNanos(current, BoltContext.START))) {
+                    // 被分支启动的节点，等待的是分支节点的依赖
+                    final BoltPlan.Node switchNode = plan.node(activator);
+                    previous = latest(context, switchNode.required, previous);
+                    previous = latest(context, switchNode.optional, previous);
+                }
+                activator = -1;
+            }
+
+            final long stop = context.getNanos(current, BoltContext.STOP);
+            final long cost = stop - (previous < 0 ? context.getCreatedNanos() : context.getNanos(previous, BoltContext.STOP));
+            if (segments[current] != null) {
+                segments[current].update(Math.max(cost, 0), TimeUnit.NANOSECONDS);
+            }
+            if (path != null) {
+                if (path.length() > 0) {
+                    path.append(" <- ");
+                }
+                path.append(node.bolt.getHumanReadableName()).append('(').append(millis(cost)).append("ms)");
+            }
+            current = previous;
+        }
+
+        if (path != null) {
+            log.info("graph={} succeeded={} totalMs={} criticalPath=[{}]", graphName, succeeded, millis(total), path);
+        }
+    }
+
+    /**
+     * @return indexes 中已启动且最晚结束的节点，都比 candidate 早时返回 candidate
+     */
+    private static int latest(BoltContext context, int[] indexes, int candidate) {
+        for (int i : indexes) {
+            if (!context.isStarted(i) || context.getNanos(i, BoltContext.STOP) == 0) {
+                // 没有启动或者被取消时还没结束
+                continue;
+            }
+            if (candidate < 0 || context.getNanos(i, BoltContext.STOP) > context.getNanos(candidate, BoltContext.STOP)) {
+                candidate = i;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * 有时间预算的依赖只有在当前节点就绪前结束，才算被等待过
+     */
+    private static int latest(BoltContext context, BoltPlan.Timed[] items, long readyNanos, int candidate) {
+        for (BoltPlan.Timed item : items) {
+            final int i = item.dependency;
+            if (!context.isStarted(i) || context.getNanos(i, BoltContext.STOP) == 0
+                    || context.getNanos(i, BoltContext.STOP) > readyNanos) {
+                continue;
+            }
+            if (candidate < 0 || context.getNanos(i, BoltContext.STOP) > context.getNanos(candidate, BoltContext.STOP)) {
+                candidate = i;
+            }
+        }
+        return candidate;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1000000.0D);
+    }
+}
@@ -0,0 +1,209 @@
+package com.yibo.common.bolt;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.yibo.common.monitor.MetricsHolder;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * 对列表中的每个元素调用一次异步函数，同时执行的元素不超过 parallelism 个，结果按原顺序排列。
+ * <p>
+ * 函数在启动它的线程上调用：前 parallelism 个在 evaluate 的线程上，之后的在上一个元素完成的线程上，所以函数本身不能阻塞。
+ * <p>
+ * 指标为 bolt.{name}.item（单个元素耗时）和 bolt.{name}.item.failure（失败的元素数）。
+ * 名字必须指定，否则所有扇出都叫ForEachBolt，共用同一组指标、熔断和bulkhead
+ */
+class ForEachBolt<T, R> extends Bolt<List<R>> {
+
+    private final Function<T, ListenableFuture<R>> function;
+
+    private final int parallelism;
+
+    private final ItemFailurePolicy<R> policy;
+
+    private final Timer item;
+
+    private final Counter itemFailure;
+
+    public ForEachBolt(String name, Bolt<List<T>> from, Function<T, ListenableFuture<R>> function, int parallelism,
+                       ItemFailurePolicy<R> policy) {
+        checkArgument(name != null && !name.isEmpty(), "name must be specified.");
+        checkNotNull(function, "function must not be null.");
+        checkArgument(parallelism > 0, "parallelism must be positive.");
+        checkNotNull(policy, "policy must not be null.");
+        new Builder<>(this).dependsOn(D.From, from).withName(name).build();
+        this.function = function;
+        this.parallelism = parallelism;
+        this.policy = policy;
+        this.item = MetricsHolder.timer(MetricRegistry.name(BoltMetrics.PREFIX, getName(), "item"));
+        this.itemFailure = MetricsHolder.counter(MetricRegistry.name(BoltMetrics.PREFIX, getName(), "item", "failure"));
+    }
+
+    @Override
+    protected ListenableFuture<List<R>> evaluate() throws Exception {
+        final List<T> items = getDep(D.From);
+        if (items == null || items.isEmpty()) {
+            return Futures.<List<R>>immediateFuture(ImmutableList.<R>of());
+        }
+        return new Fanout(items).start();
+    }
+
+    enum D {
+        From
+    }
+
+    /**
+     * 一次执行的所有元素，取消时取消还在执行的元素
+     */
+    private final class Fanout extends AbstractFuture<List<R>> {
+
+        private final List<T> items;
+
+        private final Object[] results;
+
+        private final boolean[] skipped;
+
+        private final AtomicReferenceArray<ListenableFuture<R>> inflight;
+
+        private final AtomicInteger next = new AtomicInteger();
+
+        private final AtomicInteger remaining;
+
+        private Fanout(List<T> items) {
+            this.items = items;
+            this.results = new Object[items.size()];
+            this.skipped = new boolean[items.size()];
+            this.inflight = new AtomicReferenceArray<>(items.size());
+            this.remaining = new AtomicInteger(items.size());
+        }
+
+        private ListenableFuture<List<R>> start() {
+            for (int i = 0; i < parallelism && !isDone(); i++) {
+                launch();
+            }
+            return this;
+        }
+
+        /**
+         * 启动下一个元素，同步完成的元素在循环中继续启动下一个，避免递归
+         */
+        private void launch() {
+            while (!isDone()) {
+                final int index = next.getAndIncrement();
+                if (index >= items.size()) {
+                    return;
+                }
+                final long start = System.nanoTime();
+                ListenableFuture<R> future;
+                try {
+                    future = function.apply(items.get(index));
+                    checkNotNull(future, "forEach function returned null Future object!");
+                } catch (Throwable e) {
+                    future = Futures.immediateFailedFuture(e);
+                }
+                inflight.set(index, future);
+                if (isDone()) {
+                    // 启动期间整体已被取消或快速失败，cancelInflight 可能没有看到这个元素
+                    if (inflight.getAndSet(index, null) != null) {
+                        future.cancel(true);
+                    }
+                    return;
+                }
+                if (!future.isDone()) {
+                    Futures.addCallback(future, new FutureCallback<R>() {
+                        @Override
+                        public void onSuccess(R result) {
+                            complete(index, start, result, null);
+                            launch();
+                        }
+
+                        @Override
+                        public void onFailure(Throwable t) {
+                            complete(index, start, null, t);
+                            launch();
+                        }
+                    });
+                    return;
+                }
+                try {
+                    complete(index, start, getUninterruptibly(future), null);
+                } catch (ExecutionException e) {
+                    complete(index, start, null, e.getCause());
+                } catch (Throwable e) {
+                    complete(index, start, null, e);
+                }
+            }
+        }
+
+        private void complete(int index, long start, R result, Throwable e) {
+            item.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            inflight.set(index, null);
+            if (e == null) {
+                results[index] = result;
+            } else {
+                itemFailure.inc();
+                switch (policy.getMode()) {
+                    case SKIP:
+                        skipped[index] = true;
+                        break;
+                    case DEFAULT:
+                        results[index] = policy.getDefaultValue();
+                        break;
+                    default:
+                        if (setException(e)) {
+                            cancelInflight();
+                        }
+                        return;
+                }
+            }
+            if (remaining.decrementAndGet() == 0) {
+                set(collect());
+            }
+        }
+
+        private List<R> collect() {
+            final List<R> list = Lists.newArrayListWithCapacity(results.length);
+            for (int i = 0; i < results.length; i++) {
+                if (!skipped[i]) {
+                    list.add((R) results[i]);
+                }
+            }
+            return list;
+        }
+
+        private void cancelInflight() {
+            for (int i = 0; i < inflight.length(); i++) {
+                final ListenableFuture<R> future = inflight.getAndSet(i, null);
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            cancelInflight();
+            return true;
+        }
+    }
+}
@@ -21,6 +21,14 @@ class FunctionBolt<F, T> extends Bolt<T> {
         return super.getName() + "_" + hashCode();
     }
 
+    /**
+     * 名字跟hashcode有关，记录监控的话指标太多
+     */
+    @Override
+    String metricName() {
+        return null;
+    }
+
     @Override
     protected ListenableFuture<T> evaluate() throws Exception {
         return Futures.immediateFuture(function.apply((F) getDep(D.From)));
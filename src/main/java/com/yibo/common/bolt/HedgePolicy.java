@@ -0,0 +1,122 @@
+package com.yibo.common.bolt;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * 对冲执行策略，通过 {@link Bolt.Builder#withHedging(HedgePolicy)} 设置，适合调用多副本后端、长尾明显的ServiceBolt。
+ * <p>
+ * {@link Bolt#evaluate()} 返回的future超过阈值还没完成时，再调用一次 {@link Bolt#evaluate()}，
+ * 先成功的结果生效，另一次调用被取消。两次都失败时以后失败的为准。
+ * <p>
+ * 只有 evaluate 返回还没完成的future（异步调用）时才会对冲：在 evaluate 中同步阻塞调用后端、
+ * 返回已完成future的Bolt（比如运行在 {@link Workload#BLOCKING} 线程池上的同步ServiceBolt）永远不会对冲。
+ * 对冲调用同样经过 preEvaluate / postEvaluate，图被取消时一起被中断和取消。
+ * <p>
+ * 所有Bolt共享一个对冲预算：每次可以对冲的执行积累 {@link #setBudget(double)} 个令牌，每次对冲消耗一个，
+ * 后端整体变慢时对冲带来的额外请求不会超过这个比例。
+ *
+ * @author yibo
+ */
+public final class HedgePolicy {
+
+    /**
+     * 令牌按千分之一计数
+     */
+    private static final long SCALE = 1000L;
+
+    /**
+     * 最多积累的令牌数，允许小的突发
+     */
+    private static final long MAX_TOKENS = 100L * SCALE;
+
+    private static final AtomicLong TOKENS = new AtomicLong(MAX_TOKENS);
+
+    private static volatile long deposit = (long) (0.1 * SCALE);
+
+    private final long delayNanos;
+
+    private final boolean adaptive;
+
+    private HedgePolicy(long delayNanos, boolean adaptive) {
+        this.delayNanos = delayNanos;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * 固定阈值
+     */
+    public static HedgePolicy fixed(long delay, TimeUnit unit) {
+        checkArgument(delay >= 0, "delay must not be negative.");
+        checkNotNull(unit, "unit must not be null.");
+        return new HedgePolicy(unit.toNanos(delay), false);
+    }
+
+    /**
+     * 阈值取Bolt最近的p95耗时，不低于 minDelay。Bolt没有监控指标时使用 minDelay
+     */
+    public static HedgePolicy p95(long minDelay, TimeUnit unit) {
+        checkArgument(minDelay >= 0, "minDelay must not be negative.");
+        checkNotNull(unit, "unit must not be null.");
+        return new HedgePolicy(unit.toNanos(minDelay), true);
+    }
+
+    /**
+     * 设置全局对冲预算
+     *
+     * @param ratio 对冲次数占可对冲执行次数的最大比例，默认 0.1
+     */
+    public static void setBudget(double ratio) {
+        checkArgument(ratio >= 0 && ratio <= 1, "ratio must be in [0, 1].");
+        deposit = (long) (ratio * SCALE);
+    }
+
+    long getDelayNanos() {
+        return delayNanos;
+    }
+
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * 一次可以对冲的执行，积累令牌
+     */
+    static void deposit() {
+        final long amount = deposit;
+        long tokens;
+        do {
+            tokens = TOKENS.get();
+            if (tokens >= MAX_TOKENS) {
+                return;
+            }
+        } while (!TOKENS.compareAndSet(tokens, Math.min(MAX_TOKENS, tokens + amount)));
+    }
+
+    /**
+     * 退还 {@link #tryAcquire()} 拿到但没有用上的令牌
+     */
+    static void refund() {
+        long tokens;
+        do {
+            tokens = TOKENS.get();
+        } while (!TOKENS.compareAndSet(tokens, Math.min(MAX_TOKENS, tokens + SCALE)));
+    }
+
+    /**
+     * @return 预算足够时消耗一个令牌并返回true
+     */
+    static boolean tryAcquire() {
+        long tokens;
+        do {
+            tokens = TOKENS.get();
+            if (tokens < SCALE) {
+                return false;
+            }
+        } while (!TOKENS.compareAndSet(tokens, tokens - SCALE));
+        return true;
+    }
+}
@@ -0,0 +1,57 @@
+package com.yibo.common.bolt;
+
+/**
+ * {@link Bolt#forEach} 中单个元素失败时的处理方式
+ *
+ * @param <R> 元素结果
+ */
+public final class ItemFailurePolicy<R> {
+
+    enum Mode {
+        /**
+         * 整体失败，取消其他还在执行的元素
+         */
+        FAIL_FAST,
+        /**
+         * 结果中去掉失败的元素
+         */
+        SKIP,
+        /**
+         * 失败的元素使用默认值
+         */
+        DEFAULT
+    }
+
+    private static final ItemFailurePolicy FAIL_FAST = new ItemFailurePolicy<>(Mode.FAIL_FAST, null);
+
+    private static final ItemFailurePolicy SKIP = new ItemFailurePolicy<>(Mode.SKIP, null);
+
+    private final Mode mode;
+
+    private final R defaultValue;
+
+    private ItemFailurePolicy(Mode mode, R defaultValue) {
+        this.mode = mode;
+        this.defaultValue = defaultValue;
+    }
+
+    public static <R> ItemFailurePolicy<R> failFast() {
+        return FAIL_FAST;
+    }
+
+    public static <R> ItemFailurePolicy<R> skip() {
+        return SKIP;
+    }
+
+    public static <R> ItemFailurePolicy<R> useDefault(R defaultValue) {
+        return new ItemFailurePolicy<>(Mode.DEFAULT, defaultValue);
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    R getDefaultValue() {
+        return defaultValue;
+    }
+}
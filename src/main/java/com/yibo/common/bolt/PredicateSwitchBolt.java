@@ -1,8 +1,11 @@
 package com.yibo.common.bolt;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.List;
+
 /**
  * .
  */
@@ -22,10 +25,23 @@ class PredicateSwitchBolt<O> extends Bolt<O> {
         return super.getName() + "_" + hashCode();
     }
 
+    /**
+     * 名字跟hashcode有关，记录监控的话指标太多
+     */
+    @Override
+    String metricName() {
+        return null;
+    }
+
     @Override
     protected ListenableFuture<O> evaluate() throws Exception {
         boolean predicate = getDep(D.Predicate);
-        return predicate ? trueBolt.register(graph).execute() : falseBolt.register(graph).execute();
+        return predicate ? activate(trueBolt) : activate(falseBolt);
+    }
+
+    @Override
+    List<Bolt> branches() {
+        return ImmutableList.<Bolt>of(trueBolt, falseBolt);
     }
 
     public enum D {
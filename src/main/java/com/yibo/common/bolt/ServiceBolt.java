@@ -1,23 +1,29 @@
 package com.yibo.common.bolt;
 
-import brave.ScopedSpan;
 import brave.Span;
-import brave.Tracing;
+import brave.Tracer;
+import brave.propagation.TraceContext;
 import com.google.common.base.CaseFormat;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.context.ApplicationContext;
 
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
 public abstract class ServiceBolt<O> extends Bolt<O> {
 
     private static final String BOLT_EXCEPTION = "BOLT_EXCEPTION";
 
-    private Span parentSpan;
-    private ScopedSpan child;
+    /**
+     * span的名字，第一次被采样执行时生成
+     */
+    private volatile String spanName;
 
     protected ServiceBolt() {
         super();
-        this.parentSpan = Tracing.currentTracer().currentSpan();
     }
 
     ApplicationContext applicationContext;
@@ -34,26 +40,111 @@ public abstract class ServiceBolt<O> extends Bolt<O> {
         return applicationContext.getBean(requiredType);
     }
 
+    /**
+     * 是否开启自适应并发限制，监控名相同的Bolt共享同一个限制。开启后超过限制的调用在提交到executor之前直接以
+     * {@link java.util.concurrent.RejectedExecutionException} 失败，作为可选依赖时使用方拿到默认值
+     */
+    protected boolean isConcurrencyLimited() {
+        return false;
+    }
+
+    /**
+     * 开启并发限制时的初始值
+     */
+    protected int getInitialConcurrencyLimit() {
+        return 20;
+    }
+
+    protected int getMinConcurrencyLimit() {
+        return 1;
+    }
+
+    protected int getMaxConcurrencyLimit() {
+        return 200;
+    }
+
+    @Override
+    BoltLimiter limiter() {
+        return isConcurrencyLimited() ? BoltLimiter.of(this) : null;
+    }
+
+    /**
+     * 本次执行被采样时，以图开始执行时的span为父节点创建span，并在 evaluate 期间放到当前线程上，
+     * 业务代码里的远程调用可以继续传递链路。没有被采样时不创建span，也不生成span名字
+     */
     @Override
     final protected void preEvaluate() throws Exception {
-        final String name = getName();
-        if (StringUtils.isNotBlank(name)) {
-            child = Tracing.currentTracer().startScopedSpan(CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, name));
+        final TraceContext parent = BoltContext.current().getTraceContext();
+        final Tracer tracer = parent == null ? null : BoltTracing.tracer();
+        if (tracer != null) {
+            final String name = spanName();
+            if (StringUtils.isNotEmpty(name)) {
+                final Span span = tracer.newChild(parent).name(name).start();
+                setAttachment(new Trace(span, tracer.withSpanInScope(span)));
+            }
         }
         doPreEvaluate();
     }
 
+    private String spanName() {
+        String name = spanName;
+        if (name == null) {
+            name = StringUtils.isBlank(getName()) ? "" : CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, getName());
+            spanName = name;
+        }
+        return name;
+    }
+
     protected void doPreEvaluate() throws Exception {
     }
 
     @Override
     final protected void postEvaluate(ListenableFuture<O> future) throws Exception {
-        doPostEvaluate(future);
+        try {
+            doPostEvaluate(future);
+        } finally {
+            // 异步的结果可能在其他线程上完成，span只在执行evaluate的线程上生效
+            final Trace trace = (Trace) getAttachment();
+            if (trace != null) {
+                trace.closeScope();
+            }
+        }
     }
 
     protected void doPostEvaluate(ListenableFuture<O> future) throws Exception {
     }
 
+    /**
+     * 对冲调用的span在对冲调用的结果完成时结束，不经过 {@link #completeEvaluate(Object, Throwable, boolean)}
+     */
+    @Override
+    final void completeHedge(final ListenableFuture<O> future, Throwable e) {
+        final Trace trace = (Trace) getAttachment();
+        if (trace == null) {
+            return;
+        }
+        trace.closeScope();
+        trace.span.annotate(getName() + " is hedged");
+        if (future == null) {
+            trace.span.error(e);
+            trace.span.finish();
+            return;
+        }
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getUninterruptibly(future);
+                } catch (ExecutionException ee) {
+                    trace.span.error(ee.getCause());
+                } catch (Throwable t) {
+                    trace.span.error(t);
+                }
+                trace.span.finish();
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
     @Override
     final protected void completeEvaluate(Object result, Throwable e, boolean completedInCallback) throws Exception {
         Throwable completeException = e;
@@ -63,21 +154,25 @@ public abstract class ServiceBolt<O> extends Bolt<O> {
             completeException = ce;
             throw ce;
         } finally {
-            if (child != null) {
+            final Trace trace = (Trace) getAttachment();
+            if (trace != null) {
+                // evaluate同步失败时没有经过postEvaluate，仍然在执行evaluate的线程上
+                trace.closeScope();
                 if (completeException != null) {
-                    child.error(completeException);
-                } else {
-                    child.finish();
+                    trace.span.error(completeException);
                 }
+                trace.span.finish();
             }
         }
     }
 
     @Override
     protected void aborted() {
-        if (child != null) {
-            child.annotate(getName() + " is aborted");
-            child.finish();
+        final Trace trace = (Trace) getAttachment();
+        if (trace != null) {
+            trace.closeScope();
+            trace.span.annotate(getName() + " is aborted");
+            trace.span.finish();
         }
     }
 
@@ -88,4 +183,29 @@ public abstract class ServiceBolt<O> extends Bolt<O> {
             successEvaluate((O) result);
         }
     }
+
+    /**
+     * 一次执行的span
+     */
+    private static final class Trace {
+
+        final Span span;
+
+        /**
+         * 只在执行evaluate的线程上读写
+         */
+        private Tracer.SpanInScope scope;
+
+        Trace(Span span, Tracer.SpanInScope scope) {
+            this.span = span;
+            this.scope = scope;
+        }
+
+        void closeScope() {
+            if (scope != null) {
+                scope.close();
+                scope = null;
+            }
+        }
+    }
 }
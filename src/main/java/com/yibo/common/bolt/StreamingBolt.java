@@ -0,0 +1,47 @@
+package com.yibo.common.bolt;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * 分块产出结果的Bolt，适合分页、多分片的拉取。
+ * <p>
+ * 节点在 {@link #produce(BoltStream)} 开始生产后立即完成，结果是一个有界的 {@link BoltStream}，
+ * 下游通过 {@link Bolt#getDep(Enum)} 拿到它后可以边生产边消费，不需要等整个列表在内存中拼好。
+ * 缓冲区大小由 {@link #getCapacity()} 决定，缓冲区满时生产者等待消费者（背压）。
+ * <p>
+ * 一个流只能被一个下游消费，下游用 {@link BoltStream#reduce} 的结果作为 evaluate 的返回值时，
+ * 图被取消或者提前结束会一并通知生产者停止。图结束时还没有开始消费的流（截止时间已到、消费者因依赖失败被跳过、
+ * 没有走到的分支）会被取消，生产者在 offer 返回false后停止。只被sink使用的流不在此列，由sink负责消费。
+ *
+ * @param <T> 数据块
+ */
+public abstract class StreamingBolt<T> extends Bolt<BoltStream<T>> {
+
+    @Override
+    protected final ListenableFuture<BoltStream<T>> evaluate() throws Exception {
+        final BoltStream<T> stream = new BoltStream<>(getCapacity());
+        try {
+            produce(stream);
+        } catch (Throwable e) {
+            stream.fail(e);
+            throw e;
+        }
+        return Futures.immediateFuture(stream);
+    }
+
+    /**
+     * 开始生产，可以异步进行。每块通过 {@link BoltStream#offer(Object)} 发布，等返回的future完成后再发布下一块，
+     * 结果为false时停止；结束时调用 {@link BoltStream#complete()} 或 {@link BoltStream#fail(Throwable)}。
+     * <p>
+     * 同一个实例被多次执行时，依赖需要在这个方法中同步读取，异步的回调中调用 {@link Bolt#getDep(Enum)} 会失败，见 {@link Bolt}
+     */
+    protected abstract void produce(BoltStream<T> stream) throws Exception;
+
+    /**
+     * 最多缓冲多少个还没有被消费的数据块
+     */
+    protected int getCapacity() {
+        return 16;
+    }
+}
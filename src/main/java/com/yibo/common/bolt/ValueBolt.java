@@ -12,19 +12,26 @@ final class ValueBolt<O> extends Bolt<O> {
 
     private final Supplier<O> supplier;
 
+    /**
+     * 固定值在每次执行间共用同一个已完成的future
+     */
+    private final ListenableFuture<O> immediate;
+
     protected ValueBolt(O value) {
         super();
         this.supplier = () -> value;
+        this.immediate = Futures.immediateFuture(value);
     }
 
     public ValueBolt(Supplier<O> supplier) {
         super();
         this.supplier = supplier == null ? () -> null : supplier;
+        this.immediate = null;
     }
 
     @Override
     protected ListenableFuture<O> evaluate() throws Exception {
-        return Futures.immediateFuture(supplier.get());
+        return immediate != null ? immediate : Futures.immediateFuture(supplier.get());
     }
 
     @Override
@@ -32,6 +39,14 @@ final class ValueBolt<O> extends Bolt<O> {
         return super.getName() + "_" + hashCode();
     }
 
+    /**
+     * 名字跟hashcode有关，记录监控的话指标太多
+     */
+    @Override
+    String metricName() {
+        return null;
+    }
+
     @Override
     public String getHumanReadableName() {
 
@@ -0,0 +1,24 @@
+package com.yibo.common.bolt;
+
+/**
+ * Bolt的负载类型，决定没有指定executor时 {@link Bolt#evaluate()} 在哪个线程池上执行
+ *
+ * @see BoltScheduler
+ */
+public enum Workload {
+
+    /**
+     * 计算密集，在共享的ForkJoinPool上执行
+     */
+    CPU,
+
+    /**
+     * 阻塞IO，比如同步的RPC、SQL调用，在按bulkhead隔离的线程池上执行
+     */
+    BLOCKING,
+
+    /**
+     * 非常轻量的取值、转换，在完成依赖的线程上直接执行
+     */
+    TRIVIAL
+}
@@ -0,0 +1,27 @@
+package com.yibo.common.bolt.annotation;
+
+import com.yibo.common.bolt.Workload;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 注解: 声明Bolt的负载类型，{@link com.yibo.common.bolt.Bolt.Builder#withWorkload(Workload)} 的优先级更高
+ *
+ * @author yibo
+ */
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface BoltWorkload {
+
+    Workload value();
+
+    /**
+     * {@link Workload#BLOCKING} 使用的线程池名字，相同名字的Bolt共用一个线程池，默认共用 {@link com.yibo.common.bolt.BoltScheduler#DEFAULT_BULKHEAD}
+     */
+    String bulkhead() default "";
+}
@@ -2,6 +2,7 @@ package com.yibo.common.monitor;
 
 import com.codahale.metrics.InstrumentedExecutorService;
 import com.codahale.metrics.InstrumentedThreadFactory;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 
@@ -43,6 +44,108 @@ public final class BMonitor {
         return MetricsHolder.timer(timerName).time();
     }
 
+    /**
+     * 带标签的QPS监控，同一个名字的标签组合数量有上限，见 {@link MetricFamily}
+     *
+     * @param id 监控名和标签
+     */
+    public static void meter(MetricId id) {
+        MetricsHolder.meter(id).mark();
+    }
+
+    /**
+     * 带标签的QPS和响应时间(RT)监控
+     *
+     * @param id 监控名和标签
+     */
+    public static void timer(MetricId id, long milliseconds) {
+        MetricsHolder.timer(id).update(milliseconds, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 设置一个监控名最多有多少种标签组合，超过后新的组合记到标签值为 {@link MetricId#OTHER} 的监控项中
+     *
+     * @param name  监控名
+     * @param limit 标签组合数量上限
+     */
+    public static void setCardinalityLimit(String name, int limit) {
+        MetricsHolder.setCardinalityLimit(name, limit);
+    }
+
+    /**
+     * 预先解析好的timer，适合热点路径：在初始化时解析一次并保存，之后每次记录不再按名字查找，也不创建对象
+     * <pre>
+     * private static final BMonitor.TimerHandle QUERY = BMonitor.timerHandle("order.query");
+     *
+     * long start = QUERY.start();
+     * ...
+     * QUERY.stop(start);
+     * </pre>
+     *
+     * @param timerName 监控名
+     */
+    public static TimerHandle timerHandle(String timerName) {
+        return new TimerHandle(MetricsHolder.timer(timerName));
+    }
+
+    /**
+     * 预先解析好的meter，见 {@link #timerHandle(String)}
+     *
+     * @param meterName 监控名
+     */
+    public static MeterHandle meterHandle(String meterName) {
+        return new MeterHandle(MetricsHolder.meter(meterName));
+    }
+
+    /**
+     * 带标签的timer，见 {@link #timerHandle(String)}
+     *
+     * @param id 监控名和标签
+     */
+    public static TimerHandle timerHandle(MetricId id) {
+        return new TimerHandle(MetricsHolder.timer(id));
+    }
+
+    /**
+     * 带标签的meter，见 {@link #timerHandle(String)}
+     *
+     * @param id 监控名和标签
+     */
+    public static MeterHandle meterHandle(MetricId id) {
+        return new MeterHandle(MetricsHolder.meter(id));
+    }
+
+    /**
+     * 执行task并记录耗时，task抛出异常时同样记录
+     *
+     * @param handle 预先解析好的timer
+     * @param task   要执行的任务
+     * @return task的返回值
+     */
+    public static <T> T time(TimerHandle handle, Callable<T> task) throws Exception {
+        final long start = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            handle.stop(start);
+        }
+    }
+
+    /**
+     * 执行task并记录耗时，task抛出异常时同样记录
+     *
+     * @param handle 预先解析好的timer
+     * @param task   要执行的任务
+     */
+    public static void time(TimerHandle handle, Runnable task) {
+        final long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            handle.stop(start);
+        }
+    }
+
     /**
      * 创建可监控的线程池
      *
@@ -59,6 +162,20 @@ public final class BMonitor {
     public static ExecutorService createInstrumentedExecutorService(int corePoolSize, int maximumPoolSize,
                                                                     long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
                                                                     RejectedExecutionHandler handler, String metricName) {
+        return createInstrumentedExecutorService(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
+                threadFactory, handler, metricName, false);
+    }
+
+    /**
+     * 创建可监控的线程池
+     *
+     * @param allowCoreThreadTimeOut 核心线程空闲超过keepAliveTime后是否退出，见 {@link ThreadPoolExecutor#allowCoreThreadTimeOut(boolean)}
+     * @see #createInstrumentedExecutorService(int, int, long, TimeUnit, BlockingQueue, ThreadFactory, RejectedExecutionHandler, String)
+     */
+    public static ExecutorService createInstrumentedExecutorService(int corePoolSize, int maximumPoolSize,
+                                                                    long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                                                    RejectedExecutionHandler handler, String metricName,
+                                                                    boolean allowCoreThreadTimeOut) {
 
         MetricRegistry metricRegistry = MetricsHolder.getMetricRegistry();
         InstrumentedThreadFactory instrumentedThreadFactory =
@@ -70,8 +187,76 @@ public final class BMonitor {
         ThreadPoolExecutor threadPoolExecutor =
                 new ThreadPoolExecutor(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
                         instrumentedThreadFactory, instrumentedAbortPolicy);
+        threadPoolExecutor.allowCoreThreadTimeOut(allowCoreThreadTimeOut);
 
         return new InstrumentedExecutorService(threadPoolExecutor, metricRegistry, metricName);
     }
 
+    /**
+     * 预先解析好的timer，所有方法都不创建对象，时间用 {@link System#nanoTime()} 的纳秒数表示
+     */
+    public static final class TimerHandle {
+
+        private final Timer timer;
+
+        private TimerHandle(Timer timer) {
+            this.timer = timer;
+        }
+
+        /**
+         * @return 开始时间，传给 {@link #stop(long)}
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        /**
+         * 记录从 startNanos 到现在的耗时
+         *
+         * @param startNanos {@link #start()} 的返回值
+         * @return 耗时纳秒数
+         */
+        public long stop(long startNanos) {
+            final long elapsed = System.nanoTime() - startNanos;
+            timer.update(elapsed, TimeUnit.NANOSECONDS);
+            return elapsed;
+        }
+
+        /**
+         * 直接记录一次耗时
+         *
+         * @param nanos 耗时纳秒数
+         */
+        public void update(long nanos) {
+            timer.update(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public Timer getTimer() {
+            return timer;
+        }
+    }
+
+    /**
+     * 预先解析好的meter
+     */
+    public static final class MeterHandle {
+
+        private final Meter meter;
+
+        private MeterHandle(Meter meter) {
+            this.meter = meter;
+        }
+
+        public void mark() {
+            meter.mark();
+        }
+
+        public void mark(long n) {
+            meter.mark(n);
+        }
+
+        public Meter getMeter() {
+            return meter;
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.yibo.common.monitor;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,4 +84,123 @@ public final class BMonitorConfig {
         return Boolean.parseBoolean(value);
 
     }
+
+    /**
+     * timer和histogram默认使用的reservoir，没有配置或配置错误时使用 {@link ReservoirType#HDR}
+     */
+    public static ReservoirType getReservoirType() {
+
+        final String value = getString(BMonitorConstants.RESERVOIR);
+        if (value == null) {
+            return ReservoirType.HDR;
+        }
+        try {
+            return ReservoirType.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("unknown reservoir {} in bmonitor.properties, use {}", value, ReservoirType.HDR);
+            return ReservoirType.HDR;
+        }
+    }
+
+    /**
+     * 滑动窗口reservoir的窗口长度，单位秒
+     */
+    public static long getReservoirWindowSeconds() {
+
+        return getPositiveLong(BMonitorConstants.RESERVOIR_WINDOW_SECONDS, BMonitorConstants.DEFAULT_RESERVOIR_WINDOW_SECONDS);
+    }
+
+    /**
+     * graphite的地址，在连接时解析
+     */
+    public static String getGraphiteHost() {
+
+        final String value = getString(BMonitorConstants.GRAPHITE_HOST);
+        return value == null || value.trim().isEmpty() ? BMonitorConstants.DEFAULT_GRAPHITE_HOST : value.trim();
+    }
+
+    /**
+     * 默认使用文本协议：之前固定上报到 2003 端口的文本协议，没有配置的应用升级后默认仍然上报到原来的端口，
+     * 不会因为2004端口没有开放或者只部署了文本协议的relay而丢数据。数据量大时建议配置 graphiteProtocol=pickle
+     *
+     * @return 是否使用pickle协议
+     */
+    public static boolean isGraphitePickle() {
+
+        return BMonitorConstants.GRAPHITE_PICKLE.equalsIgnoreCase(StringUtils.trim(getString(BMonitorConstants.GRAPHITE_PROTOCOL)));
+    }
+
+    /**
+     * graphite的端口，没有配置时文本协议为2003，pickle协议为2004
+     */
+    public static int getGraphitePort() {
+
+        return (int) getPositiveLong(BMonitorConstants.GRAPHITE_PORT,
+                isGraphitePickle() ? BMonitorConstants.DEFAULT_GRAPHITE_PICKLE_PORT : BMonitorConstants.DEFAULT_GRAPHITE_PORT);
+    }
+
+    /**
+     * 上报周期，单位秒
+     */
+    public static long getGraphitePeriodSeconds() {
+
+        return getPositiveLong(BMonitorConstants.GRAPHITE_PERIOD_SECONDS, BMonitorConstants.DEFAULT_GRAPHITE_PERIOD_SECONDS);
+    }
+
+    /**
+     * 等待发送的数据点最多缓存多少个
+     */
+    public static int getGraphiteQueueSize() {
+
+        return (int) getPositiveLong(BMonitorConstants.GRAPHITE_QUEUE_SIZE, BMonitorConstants.DEFAULT_GRAPHITE_QUEUE_SIZE);
+    }
+
+    /**
+     * 每次发送多少个数据点
+     */
+    public static int getGraphiteBatchSize() {
+
+        return (int) getPositiveLong(BMonitorConstants.GRAPHITE_BATCH_SIZE, BMonitorConstants.DEFAULT_GRAPHITE_BATCH_SIZE);
+    }
+
+    /**
+     * 同一个名字最多有多少种标签组合，见 {@link MetricFamily}
+     */
+    public static int getTagCardinalityLimit() {
+
+        return (int) getPositiveLong(BMonitorConstants.TAG_CARDINALITY_LIMIT, BMonitorConstants.DEFAULT_TAG_CARDINALITY_LIMIT);
+    }
+
+    /**
+     * @return 没有配置、不是正整数时返回 defaultValue
+     */
+    private static long getPositiveLong(String key, long defaultValue) {
+
+        final String value = getString(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final long result = Long.parseLong(value.trim());
+            return result > 0 ? result : defaultValue;
+        } catch (NumberFormatException e) {
+            LOGGER.error("invalid {} {} in bmonitor.properties", key, value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return 没有配置时返回null
+     */
+    private static String getString(String key) {
+
+        if (rb == null) {
+            return null;
+        }
+        try {
+            return rb.getString(key);
+        } catch (MissingResourceException e) {
+            return null;
+        }
+    }
 }
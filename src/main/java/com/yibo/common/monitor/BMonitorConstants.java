@@ -39,4 +39,70 @@ public final class BMonitorConstants {
      */
     public static final String ENABLE_MONITOR = "enableMonitor";
 
+    /**
+     * timer和histogram默认使用的reservoir，取值见 {@link ReservoirType}
+     */
+    public static final String RESERVOIR = "reservoir";
+
+    /**
+     * 滑动窗口reservoir的窗口长度，单位秒
+     */
+    public static final String RESERVOIR_WINDOW_SECONDS = "reservoirWindowSeconds";
+
+    /**
+     * 默认的窗口长度，和上报周期一致
+     */
+    public static final long DEFAULT_RESERVOIR_WINDOW_SECONDS = 60;
+
+    /**
+     * graphite的地址
+     */
+    public static final String GRAPHITE_HOST = "graphiteHost";
+
+    public static final String DEFAULT_GRAPHITE_HOST = "test.com";
+
+    /**
+     * graphite的端口
+     */
+    public static final String GRAPHITE_PORT = "graphitePort";
+
+    public static final int DEFAULT_GRAPHITE_PORT = 2003;
+
+    public static final int DEFAULT_GRAPHITE_PICKLE_PORT = 2004;
+
+    /**
+     * graphite的协议，plaintext 或 pickle
+     */
+    public static final String GRAPHITE_PROTOCOL = "graphiteProtocol";
+
+    public static final String GRAPHITE_PICKLE = "pickle";
+
+    /**
+     * 上报周期，单位秒
+     */
+    public static final String GRAPHITE_PERIOD_SECONDS = "graphitePeriodSeconds";
+
+    public static final long DEFAULT_GRAPHITE_PERIOD_SECONDS = 60;
+
+    /**
+     * 等待发送的数据点最多缓存多少个，超过时丢弃最早的
+     */
+    public static final String GRAPHITE_QUEUE_SIZE = "graphiteQueueSize";
+
+    public static final int DEFAULT_GRAPHITE_QUEUE_SIZE = 100000;
+
+    /**
+     * 每次发送多少个数据点
+     */
+    public static final String GRAPHITE_BATCH_SIZE = "graphiteBatchSize";
+
+    public static final int DEFAULT_GRAPHITE_BATCH_SIZE = 500;
+
+    /**
+     * 同一个名字最多有多少种标签组合
+     */
+    public static final String TAG_CARDINALITY_LIMIT = "tagCardinalityLimit";
+
+    public static final int DEFAULT_TAG_CARDINALITY_LIMIT = 500;
+
 }
@@ -0,0 +1,302 @@
+package com.yibo.common.monitor;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * HdrHistogram方式的滑动时间窗口reservoir，统计最近一个窗口内的全部样本，不做采样，尾部分位数和最大值没有偏差。
+ * <p>
+ * 每个2的幂区间均分成 {@link #SUB_BUCKETS} 个桶，分位数的相对误差不超过 1/{@value #SUB_BUCKETS}，最大值是精确值。
+ * 窗口分成 {@link #SLICES} 段，写入只在当前段的桶上做一次原子自增，不加锁；某个区间的桶在第一次有值落入时才分配，
+ * 通常一个timer只会用到十几个区间。
+ * <p>
+ * 快照合并窗口内的所有段，覆盖最近 3/4 到 1 个窗口的样本。换段的瞬间正在写入旧段的样本可能丢失，对统计没有影响。
+ *
+ * @author yibo
+ * @date 2026-10-18
+ */
+public final class HdrWindowReservoir implements Reservoir {
+
+    private static final int SUB_BITS = 5;
+
+    /**
+     * 每个2的幂区间的桶数
+     */
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * 区间0放 [0, SUB_BUCKETS)，区间 i 放 [SUB_BUCKETS << (i - 1), SUB_BUCKETS << i)
+     */
+    private static final int OCTAVES = 64 - SUB_BITS;
+
+    static final int SLICES = 4;
+
+    private final long sliceNanos;
+
+    private final AtomicReferenceArray<Slice> slices = new AtomicReferenceArray<>(SLICES);
+
+    /**
+     * @param window 窗口长度，不小于 {@value #SLICES} 毫秒
+     */
+    public HdrWindowReservoir(long window, TimeUnit unit) {
+        checkArgument(unit.toMillis(window) >= SLICES, "window must be at least %s ms.", SLICES);
+        this.sliceNanos = unit.toNanos(window) / SLICES;
+    }
+
+    @Override
+    public int size() {
+        return getSnapshot().size();
+    }
+
+    @Override
+    public void update(long value) {
+        final long epoch = Math.floorDiv(System.nanoTime(), sliceNanos);
+        slice(epoch).record(value < 0 ? 0 : value);
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        final long epoch = Math.floorDiv(System.nanoTime(), sliceNanos);
+        final Slice[] current = new Slice[SLICES];
+        for (int i = 0; i < SLICES; i++) {
+            final Slice slice = slices.get(i);
+            if (slice != null && epoch - slice.epoch < SLICES) {
+                current[i] = slice;
+            }
+        }
+
+        int buckets = 0;
+        final long[][] merged = new long[OCTAVES][];
+        long max = 0;
+        for (Slice slice : current) {
+            if (slice == null) {
+                continue;
+            }
+            max = Math.max(max, slice.max.get());
+            for (int octave = 0; octave < OCTAVES; octave++) {
+                final AtomicLongArray counts = slice.octaves.get(octave);
+                if (counts == null) {
+                    continue;
+                }
+                if (merged[octave] == null) {
+                    merged[octave] = new long[SUB_BUCKETS];
+                }
+                for (int sub = 0; sub < SUB_BUCKETS; sub++) {
+                    final long count = counts.get(sub);
+                    if (count != 0 && merged[octave][sub] == 0) {
+                        buckets++;
+                    }
+                    merged[octave][sub] += count;
+                }
+            }
+        }
+
+        final long[] values = new long[buckets];
+        final long[] counts = new long[buckets];
+        int next = 0;
+        for (int octave = 0; octave < OCTAVES && next < buckets; octave++) {
+            if (merged[octave] == null) {
+                continue;
+            }
+            for (int sub = 0; sub < SUB_BUCKETS; sub++) {
+                if (merged[octave][sub] != 0) {
+                    values[next] = Math.min(highestEquivalent(octave, sub), max);
+                    counts[next] = merged[octave][sub];
+                    next++;
+                }
+            }
+        }
+        return new BucketSnapshot(values, counts, max);
+    }
+
+    private Slice slice(long epoch) {
+        final int index = (int) (epoch & (SLICES - 1));
+        while (true) {
+            final Slice slice = slices.get(index);
+            if (slice != null && slice.epoch == epoch) {
+                return slice;
+            }
+            if (slice != null && slice.epoch > epoch) {
+                // 写入的线程在换段前取到了时间，算进新的一段
+                return slice;
+            }
+            final Slice created = new Slice(epoch);
+            if (slices.compareAndSet(index, slice, created)) {
+                return created;
+            }
+        }
+    }
+
+    private static int octave(long value) {
+        if (value < SUB_BUCKETS) {
+            return 0;
+        }
+        return 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    }
+
+    private static int sub(long value, int octave) {
+        return octave == 0 ? (int) value : (int) (value >>> (octave - 1)) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return 桶中的最大值
+     */
+    private static long highestEquivalent(int octave, int sub) {
+        if (octave == 0) {
+            return sub;
+        }
+        final long lowest = ((long) (SUB_BUCKETS + sub)) << (octave - 1);
+        return lowest + (1L << (octave - 1)) - 1;
+    }
+
+    /**
+     * 窗口中的一段
+     */
+    private static final class Slice {
+
+        final long epoch;
+
+        final AtomicReferenceArray<AtomicLongArray> octaves = new AtomicReferenceArray<>(OCTAVES);
+
+        final AtomicLong max = new AtomicLong();
+
+        Slice(long epoch) {
+            this.epoch = epoch;
+        }
+
+        void record(long value) {
+            final int octave = octave(value);
+            AtomicLongArray counts = octaves.get(octave);
+            if (counts == null) {
+                final AtomicLongArray created = new AtomicLongArray(SUB_BUCKETS);
+                counts = octaves.compareAndSet(octave, null, created) ? created : octaves.get(octave);
+            }
+            counts.incrementAndGet(sub(value, octave));
+
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+    }
+
+    /**
+     * 按桶保存的快照，values 升序，每个桶用桶中的最大值代表
+     */
+    static final class BucketSnapshot extends Snapshot {
+
+        private final long[] values;
+
+        private final long[] counts;
+
+        private final long total;
+
+        private final long max;
+
+        BucketSnapshot(long[] values, long[] counts, long max) {
+            this.values = values;
+            this.counts = counts;
+            this.max = max;
+            long sum = 0;
+            for (long count : counts) {
+                sum += count;
+            }
+            this.total = sum;
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            checkArgument(quantile >= 0 && quantile <= 1 && !Double.isNaN(quantile), "%s is not in [0..1]", quantile);
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < values.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return values[i];
+                }
+            }
+            return max;
+        }
+
+        /**
+         * 按样本展开，只在dump时使用，数量等于窗口内的样本数
+         */
+        @Override
+        public long[] getValues() {
+            final long[] all = new long[size()];
+            int next = 0;
+            for (int i = 0; i < values.length && next < all.length; i++) {
+                for (long j = 0; j < counts[i] && next < all.length; j++) {
+                    all[next++] = values[i];
+                }
+            }
+            return all;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(total, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public long getMin() {
+            return values.length == 0 ? 0 : values[0];
+        }
+
+        @Override
+        public double getMean() {
+            if (total == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < values.length; i++) {
+                sum += (double) values[i] * counts[i];
+            }
+            return sum / total;
+        }
+
+        @Override
+        public double getStdDev() {
+            if (total <= 1) {
+                return 0;
+            }
+            final double mean = getMean();
+            double variance = 0;
+            for (int i = 0; i < values.length; i++) {
+                final double diff = values[i] - mean;
+                variance += diff * diff * counts[i];
+            }
+            return Math.sqrt(variance / (total - 1));
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                for (int i = 0; i < values.length; i++) {
+                    for (long j = 0; j < counts[i]; j++) {
+                        out.printf("%d%n", values[i]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.yibo.common.monitor;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * 同一个名字下所有带标签的监控项。
+ * <p>
+ * 标签组合的数量达到上限后，新出现的组合都记到标签值为 {@link MetricId#OTHER} 的监控项中，
+ * 并在 bmonitor.tags.{name}.overflow 中计数，避免把用户id、URI之类的值放进标签时registry无限增长。
+ * 上限默认为 bmonitor.properties 中的 tagCardinalityLimit，可以通过 {@link BMonitor#setCardinalityLimit(String, int)} 按名字设置。
+ * <p>
+ * 同一个family中的监控项类型相同，第一次注册时确定；不带标签的监控项直接注册到registry，不属于任何family。
+ *
+ * @author yibo
+ * @date 2026-10-18
+ */
+public final class MetricFamily {
+
+    private static final String OVERFLOW_PREFIX = "bmonitor.tags";
+
+    private final String name;
+
+    private volatile int limit;
+
+    /**
+     * key为第一次注册时的 {@link MetricId}，之后同样的名字和标签都返回这里的监控项
+     */
+    private final ConcurrentMap<MetricId, Metric> series = new ConcurrentHashMap<>();
+
+    /**
+     * 已占用的标签组合数量，不含 {@link MetricId#OTHER}
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicReference<Class<? extends Metric>> type = new AtomicReference<>();
+
+    /**
+     * 最近一次超过上限时使用的 {@link MetricId#OTHER}，标签的key相同时复用
+     */
+    private volatile MetricId other;
+
+    private final Meter overflow;
+
+    MetricFamily(String name, int limit, MetricRegistry registry) {
+        this.name = name;
+        this.limit = limit;
+        this.overflow = registry.meter(MetricRegistry.name(OVERFLOW_PREFIX, name, "overflow"));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    void setLimit(int limit) {
+        checkArgument(limit > 0, "limit must be positive.");
+        this.limit = limit;
+    }
+
+    /**
+     * @return 监控项的类型，还没有注册过时为null
+     */
+    public Class<? extends Metric> getType() {
+        return type.get();
+    }
+
+    /**
+     * @return 超过上限被记到 {@link MetricId#OTHER} 的次数
+     */
+    public long getOverflowCount() {
+        return overflow.getCount();
+    }
+
+    /**
+     * @return 所有标签组合和对应的监控项，只读
+     */
+    public Map<MetricId, Metric> getSeries() {
+        return Collections.unmodifiableMap(series);
+    }
+
+    /**
+     * @param metricType 监控项的类型，和第一次注册时不同时抛出 {@link IllegalArgumentException}
+     * @param factory    按registry中的名字创建或取出监控项
+     */
+    @SuppressWarnings("unchecked")
+    <T extends Metric> T resolve(MetricId id, Class<T> metricType, Function<String, T> factory) {
+        final Class<? extends Metric> pinned = type.get();
+        // 并发第一次注册同一种类型时CAS失败的一方不算类型不同
+        if (pinned != metricType && !type.compareAndSet(null, metricType) && type.get() != metricType) {
+            throw new IllegalArgumentException(String.format("%s is already registered as %s, not %s.",
+                    name, type.get().getSimpleName(), metricType.getSimpleName()));
+        }
+        final Metric existing = series.get(id);
+        if (existing != null) {
+            return (T) existing;
+        }
+        // 先占用名额再创建，名额用完时返回null，不放入map
+        final Metric created = series.computeIfAbsent(id, key -> reserve() ? create(key, factory) : null);
+        if (created != null) {
+            return (T) created;
+        }
+        overflow.mark();
+        MetricId target = other;
+        if (target == null || !target.hasSameTagKeys(id)) {
+            target = id.other();
+            other = target;
+        }
+        final Metric overflowed = series.get(target);
+        if (overflowed != null) {
+            return (T) overflowed;
+        }
+        return (T) series.computeIfAbsent(target, key -> factory.apply(key.getKey()));
+    }
+
+    private boolean reserve() {
+        while (true) {
+            final int current = size.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private <T extends Metric> T create(MetricId id, Function<String, T> factory) {
+        try {
+            return factory.apply(id.getKey());
+        } catch (RuntimeException e) {
+            size.decrementAndGet();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.yibo.common.monitor;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * 带标签的监控名，标签按key排序，相同的名字和标签相等。
+ * <pre>
+ * BMonitor.meter(MetricId.of("order.create", "tenant", tenant, "status", status));
+ * </pre>
+ * 注册到 {@link MetricsHolder#getMetricRegistry()} 时使用graphite 1.1的标签格式 name;k1=v1;k2=v2 作为名字，
+ * 只在第一次注册时拼接，之后按 {@link MetricId} 查找，不再拼接字符串。
+ * 拼接时标签中的 ; ! ^ = . 和空白字符替换为下划线。
+ * <p>
+ * 同一个名字的标签组合数量受 {@link MetricFamily} 限制。
+ *
+ * @author yibo
+ * @date 2026-10-18
+ */
+public final class MetricId {
+
+    /**
+     * 超过标签组合数量限制时，所有标签的值都替换为这个值
+     */
+    public static final String OTHER = "other";
+
+    static final char TAG_SEP = ';';
+
+    private final String name;
+
+    /**
+     * k0, v0, k1, v1 ... 按key排序
+     */
+    private final String[] tags;
+
+    private final int hash;
+
+    /**
+     * 注册到registry的名字，只在第一次注册时生成
+     */
+    private volatile String key;
+
+    private MetricId(String name, String[] tags) {
+        this.name = name;
+        this.tags = tags;
+        this.hash = 31 * name.hashCode() + Arrays.hashCode(tags);
+    }
+
+    /**
+     * @param name 监控名
+     * @param tags 标签的key和value交替出现，key不能重复
+     */
+    public static MetricId of(String name, String... tags) {
+        checkNotNull(name, "name must not be null.");
+        checkArgument(tags.length % 2 == 0, "tags must be key value pairs.");
+        final String[] sorted = tags.clone();
+        for (int i = 0; i < sorted.length; i += 2) {
+            checkNotNull(sorted[i], "tag key must not be null.");
+            checkNotNull(sorted[i + 1], "value of tag %s must not be null.", sorted[i]);
+            // 标签很少，直接插入排序
+            for (int j = i; j > 0 && sorted[j - 2].compareTo(sorted[j]) > 0; j -= 2) {
+                swap(sorted, j - 2, j);
+                swap(sorted, j - 1, j + 1);
+            }
+        }
+        for (int i = 2; i < sorted.length; i += 2) {
+            checkArgument(!sorted[i].equals(sorted[i - 2]), "duplicate tag %s.", sorted[i]);
+        }
+        return new MetricId(name, sorted);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getTagCount() {
+        return tags.length / 2;
+    }
+
+    public String getTagKey(int index) {
+        return tags[index * 2];
+    }
+
+    public String getTagValue(int index) {
+        return tags[index * 2 + 1];
+    }
+
+    public Map<String, String> getTags() {
+        final ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        for (int i = 0; i < tags.length; i += 2) {
+            builder.put(tags[i], tags[i + 1]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return 标签的key不变、值都为 {@link #OTHER} 的监控名
+     */
+    MetricId other() {
+        final String[] other = tags.clone();
+        for (int i = 1; i < other.length; i += 2) {
+            other[i] = OTHER;
+        }
+        return new MetricId(name, other);
+    }
+
+    /**
+     * @return 标签的key是否和另一个监控名相同
+     */
+    boolean hasSameTagKeys(MetricId that) {
+        if (tags.length != that.tags.length) {
+            return false;
+        }
+        for (int i = 0; i < tags.length; i += 2) {
+            if (!tags[i].equals(that.tags[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 注册到registry的名字
+     */
+    String getKey() {
+        String result = key;
+        if (result == null) {
+            final StringBuilder builder = new StringBuilder(name);
+            for (int i = 0; i < tags.length; i += 2) {
+                builder.append(TAG_SEP);
+                sanitize(builder, tags[i]);
+                builder.append('=');
+                sanitize(builder, tags[i + 1]);
+            }
+            result = builder.toString();
+            key = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return registry中的名字是否带标签
+     */
+    public static boolean isTagged(String key) {
+        return key.indexOf(TAG_SEP) >= 0;
+    }
+
+    /**
+     * reporter 会在registry中的名字后面加上 .count、.p99 之类的后缀，带标签时把后缀移到标签前面
+     *
+     * @return name.count;k=v 格式的名字，不带标签时原样返回
+     */
+    public static String moveSuffixBeforeTags(String reported) {
+        final int tagStart = reported.indexOf(TAG_SEP);
+        if (tagStart < 0) {
+            return reported;
+        }
+        final int suffixStart = reported.indexOf('.', tagStart);
+        if (suffixStart < 0) {
+            return reported;
+        }
+        return reported.substring(0, tagStart) + reported.substring(suffixStart) + reported.substring(tagStart, suffixStart);
+    }
+
+    private static void sanitize(StringBuilder builder, String text) {
+        if (text.isEmpty()) {
+            builder.append('_');
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            final boolean invalid = c == TAG_SEP || c == '!' || c == '^' || c == '=' || c == '.' || Character.isWhitespace(c);
+            builder.append(invalid ? '_' : c);
+        }
+    }
+
+    private static void swap(String[] array, int i, int j) {
+        final String temp = array[i];
+        array[i] = array[j];
+        array[j] = temp;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MetricId)) {
+            return false;
+        }
+        final MetricId other = (MetricId) o;
+        return hash == other.hash && name.equals(other.name) && Arrays.equals(tags, other.tags);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
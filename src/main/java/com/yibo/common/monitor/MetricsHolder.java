@@ -4,8 +4,11 @@ package com.yibo.common.monitor;
 import com.codahale.metrics.*;
 import com.codahale.metrics.graphite.Graphite;
 import com.codahale.metrics.graphite.GraphiteReporter;
+import com.codahale.metrics.graphite.GraphiteSender;
+import com.codahale.metrics.graphite.PickledGraphite;
 import com.codahale.metrics.jmx.JmxReporter;
 import com.codahale.metrics.jvm.*;
+import com.yibo.common.monitor.graphite.AsyncGraphiteSender;
 import com.yibo.common.monitor.jedis.JedisPoolMetricSet;
 import com.yibo.common.monitor.jvm.JITMetricSet;
 import com.yibo.common.monitor.jvm.JvmMiscMetricSet;
@@ -14,9 +17,12 @@ import com.yibo.common.utils.net.HostNameUtil;
 import org.apache.commons.lang3.StringUtils;
 
 import java.lang.management.ManagementFactory;
-import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -84,22 +90,39 @@ public class MetricsHolder {
      */
     private static final String PROD_PROFILE = "prod";
 
+    /**
+     * timer和histogram默认的reservoir
+     */
+    private static final ReservoirType DEFAULT_RESERVOIR = BMonitorConfig.getReservoirType();
+
+    private static final long RESERVOIR_WINDOW_SECONDS = BMonitorConfig.getReservoirWindowSeconds();
+
+    private static final int TAG_CARDINALITY_LIMIT = BMonitorConfig.getTagCardinalityLimit();
+
+    /**
+     * 带标签的监控项，按名字分组
+     */
+    private static final ConcurrentMap<String, MetricFamily> FAMILIES = new ConcurrentHashMap<>();
+
     private static final Set<MetricAttribute> FILTER_METRIC_ATTRS = new HashSet<MetricAttribute>() {{
 
-        // 屏蔽掉我们不会用到的指标.
+        // 屏蔽掉我们不会用到的指标. P99、P999和MAX用来看长尾，需要上报
         add(MetricAttribute.M15_RATE);
-        add(MetricAttribute.P99);
-        add(MetricAttribute.P999);
         add(MetricAttribute.P50);
         add(MetricAttribute.COUNT);
         add(MetricAttribute.STDDEV);
         add(MetricAttribute.MIN);
         add(MetricAttribute.P95);
-        add(MetricAttribute.MAX);
         add(MetricAttribute.MEAN_RATE);
     }};
 
-    private static final Graphite GRAPHITE = new Graphite(new InetSocketAddress("test.com", 2003));
+    /**
+     * 地址在bmonitor.properties中配置，在后台线程连接时才解析
+     */
+    private static final GraphiteSender GRAPHITE = new AsyncGraphiteSender(BMonitorConfig.isGraphitePickle()
+            ? new PickledGraphite(BMonitorConfig.getGraphiteHost(), BMonitorConfig.getGraphitePort(), BMonitorConfig.getGraphiteBatchSize())
+            : new Graphite(BMonitorConfig.getGraphiteHost(), BMonitorConfig.getGraphitePort()),
+            BMonitorConfig.getGraphiteQueueSize(), BMonitorConfig.getGraphiteBatchSize(), METRIC_REGISTRY);
 
     /**
      * 把单机数据上报
@@ -123,6 +146,7 @@ public class MetricsHolder {
             final JmxReporter jmxReporter = JmxReporter.forRegistry(METRIC_REGISTRY)
                     .convertDurationsTo(TimeUnit.MILLISECONDS)
                     .filter(MetricFilter.ALL)
+                    .createsObjectNamesWith(new TaggedObjectNameFactory())
                     .build();
             jmxReporter.start();
         }
@@ -130,7 +154,7 @@ public class MetricsHolder {
         // 线上环境enableMonitor默认为true,记录监控指标
         // 测试环境enableMonitor默认为false，不记录监控指标
         if (PROD_PROFILE.equalsIgnoreCase(BMonitorConfig.getEnvCode()) || BMonitorConfig.isEnabled()) {
-            HOSTNAME_REPORTER.start(60, TimeUnit.SECONDS);
+            HOSTNAME_REPORTER.start(BMonitorConfig.getGraphitePeriodSeconds(), TimeUnit.SECONDS);
 
             // 添加一些跟JVM相关的监控.
 
@@ -171,7 +195,98 @@ public class MetricsHolder {
 
     public static Timer timer(String timerName) {
 
-        return METRIC_REGISTRY.timer(timerName);
+        return timer(timerName, DEFAULT_RESERVOIR);
+    }
+
+    /**
+     * 使用指定的reservoir创建timer，同名的timer已经存在时直接返回已有的
+     */
+    public static Timer timer(String timerName, ReservoirType reservoir) {
+
+        return METRIC_REGISTRY.timer(timerName, () -> new Timer(reservoir.create(RESERVOIR_WINDOW_SECONDS)));
+    }
+
+    public static Counter counter(String counterName) {
+
+        return METRIC_REGISTRY.counter(counterName);
+    }
+
+    public static Histogram histogram(String histogramName) {
+
+        return histogram(histogramName, DEFAULT_RESERVOIR);
+    }
+
+    /**
+     * 使用指定的reservoir创建histogram，同名的histogram已经存在时直接返回已有的
+     */
+    public static Histogram histogram(String histogramName, ReservoirType reservoir) {
+
+        return METRIC_REGISTRY.histogram(histogramName, () -> new Histogram(reservoir.create(RESERVOIR_WINDOW_SECONDS)));
+    }
+
+    public static Meter meter(MetricId id) {
+
+        if (id.getTagCount() == 0) {
+            return meter(id.getName());
+        }
+        return family(id.getName()).resolve(id, Meter.class, METRIC_REGISTRY::meter);
+    }
+
+    public static Timer timer(MetricId id) {
+
+        if (id.getTagCount() == 0) {
+            return timer(id.getName());
+        }
+        return family(id.getName()).resolve(id, Timer.class, MetricsHolder::timer);
+    }
+
+    public static Counter counter(MetricId id) {
+
+        if (id.getTagCount() == 0) {
+            return counter(id.getName());
+        }
+        return family(id.getName()).resolve(id, Counter.class, METRIC_REGISTRY::counter);
+    }
+
+    public static Histogram histogram(MetricId id) {
+
+        if (id.getTagCount() == 0) {
+            return histogram(id.getName());
+        }
+        return family(id.getName()).resolve(id, Histogram.class, MetricsHolder::histogram);
+    }
+
+    /**
+     * 设置一个名字最多有多少种标签组合，已经注册的组合不受影响
+     */
+    public static void setCardinalityLimit(String name, int limit) {
+
+        family(name).setLimit(limit);
+    }
+
+    /**
+     * @return 所有带标签的监控项，按名字分组
+     */
+    public static Collection<MetricFamily> getMetricFamilies() {
+
+        return Collections.unmodifiableCollection(FAMILIES.values());
+    }
+
+    /**
+     * @return 名字对应的带标签的监控项，没有时为null
+     */
+    public static MetricFamily getMetricFamily(String name) {
+
+        return FAMILIES.get(name);
+    }
+
+    private static MetricFamily family(String name) {
+
+        final MetricFamily family = FAMILIES.get(name);
+        if (family != null) {
+            return family;
+        }
+        return FAMILIES.computeIfAbsent(name, key -> new MetricFamily(key, TAG_CARDINALITY_LIMIT, METRIC_REGISTRY));
     }
 
     public static MetricRegistry getMetricRegistry() {
@@ -0,0 +1,49 @@
+package com.yibo.common.monitor;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * timer和histogram使用的reservoir，全局默认值在 bmonitor.properties 中用 reservoir 配置，
+ * 窗口长度用 reservoirWindowSeconds 配置，单个监控项可以通过 {@link MetricsHolder#timer(String, ReservoirType)} 指定
+ *
+ * @author yibo
+ * @date 2026-10-18
+ */
+public enum ReservoirType {
+
+    /**
+     * 默认值，见 {@link HdrWindowReservoir}：统计窗口内的全部样本，分位数相对误差约3%，写入无锁，内存固定
+     */
+    HDR {
+        @Override
+        Reservoir create(long windowSeconds) {
+            return new HdrWindowReservoir(windowSeconds, TimeUnit.SECONDS);
+        }
+    },
+
+    /**
+     * 保存窗口内的每个样本，分位数精确，内存随请求量增长，只适合量小的监控项
+     */
+    SLIDING_TIME_WINDOW {
+        @Override
+        Reservoir create(long windowSeconds) {
+            return new SlidingTimeWindowArrayReservoir(windowSeconds, TimeUnit.SECONDS);
+        }
+    },
+
+    /**
+     * metrics默认的指数衰减采样，偏向最近的样本，更新时加锁，突发流量下尾部分位数不准，只为兼容保留
+     */
+    EXPONENTIALLY_DECAYING {
+        @Override
+        Reservoir create(long windowSeconds) {
+            return new ExponentiallyDecayingReservoir();
+        }
+    };
+
+    abstract Reservoir create(long windowSeconds);
+}
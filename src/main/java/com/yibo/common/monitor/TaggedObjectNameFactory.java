@@ -0,0 +1,57 @@
+package com.yibo.common.monitor;
+
+import com.codahale.metrics.jmx.DefaultObjectNameFactory;
+import com.codahale.metrics.jmx.ObjectNameFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.Hashtable;
+
+/**
+ * 带标签的监控项在jmx中把标签作为ObjectName的属性，如 domain:name=order.create,type=meters,tenant=a，
+ * 方便在jconsole中按标签分组；不带标签的监控项和 {@link DefaultObjectNameFactory} 相同
+ *
+ * @author yibo
+ * @date 2026-10-18
+ */
+final class TaggedObjectNameFactory implements ObjectNameFactory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaggedObjectNameFactory.class);
+
+    private static final ObjectNameFactory DEFAULT = new DefaultObjectNameFactory();
+
+    @Override
+    public ObjectName createName(String type, String domain, String name) {
+        if (!MetricId.isTagged(name)) {
+            return DEFAULT.createName(type, domain, name);
+        }
+        final String[] parts = name.split(String.valueOf(MetricId.TAG_SEP));
+        final Hashtable<String, String> properties = new Hashtable<>();
+        properties.put("name", quote(parts[0]));
+        properties.put("type", type);
+        for (int i = 1; i < parts.length; i++) {
+            final int eq = parts[i].indexOf('=');
+            final String key = parts[i].substring(0, eq);
+            // 和name、type重名的标签加上前缀
+            properties.put("name".equals(key) || "type".equals(key) ? "tag_" + key : key, quote(parts[i].substring(eq + 1)));
+        }
+        try {
+            return new ObjectName(domain, properties);
+        } catch (MalformedObjectNameException e) {
+            LOGGER.warn("invalid tags in metric {}, register with default name", name);
+            return DEFAULT.createName(type, domain, name);
+        }
+    }
+
+    private static String quote(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == ',' || c == ':' || c == '"' || c == '*' || c == '?' || c == '\n') {
+                return ObjectName.quote(value);
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,30 @@
+package com.yibo.common.monitor.endpoint;
+
+import com.yibo.common.bolt.BoltGraphs;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+
+import java.util.Set;
+
+/**
+ * Bolt图的结构和各节点的实时监控数据
+ * <p>
+ * /boltgraph 返回已执行过的图的类名，/boltgraph/{name} 返回graphviz的dot格式
+ *
+ * @author yibo
+ * @date 2026-10-18
+ */
+@Endpoint(id = "boltgraph")
+public class BoltGraphEndPoint {
+
+    @ReadOperation
+    public Set<String> graphs() {
+        return BoltGraphs.names();
+    }
+
+    @ReadOperation(produces = "text/plain;charset=UTF-8")
+    public String graph(@Selector String name) {
+        return BoltGraphs.render(name);
+    }
+}
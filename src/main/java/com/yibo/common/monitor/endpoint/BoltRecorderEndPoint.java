@@ -0,0 +1,30 @@
+package com.yibo.common.monitor.endpoint;
+
+import com.yibo.common.bolt.BoltGraphs;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+
+import java.util.Set;
+
+/**
+ * Bolt图的飞行记录
+ * <p>
+ * /boltrecorder 返回已执行过的图的类名，/boltrecorder/{name} 返回最近的慢执行和采样的执行，用fastjson输出
+ *
+ * @author yibo
+ * @date 2026-10-18
+ */
+@Endpoint(id = "boltrecorder")
+public class BoltRecorderEndPoint {
+
+    @ReadOperation
+    public Set<String> graphs() {
+        return BoltGraphs.names();
+    }
+
+    @ReadOperation(produces = "application/json;charset=UTF-8")
+    public String executions(@Selector String name) {
+        return BoltGraphs.dump(name);
+    }
+}
@@ -34,6 +34,21 @@ public class EndPointAutoConfigure implements ApplicationListener<ContextRefresh
         return new MetricsEndPoint();
     }
 
+    @Bean
+    public PrometheusEndPoint prometheusEndPoint() {
+        return new PrometheusEndPoint();
+    }
+
+    @Bean
+    public BoltGraphEndPoint boltGraphEndPoint() {
+        return new BoltGraphEndPoint();
+    }
+
+    @Bean
+    public BoltRecorderEndPoint boltRecorderEndPoint() {
+        return new BoltRecorderEndPoint();
+    }
+
     @Bean
     public ThreadDumpFlameEndPoint threadDumpFlameEndPoint() {
         return new ThreadDumpFlameEndPoint();
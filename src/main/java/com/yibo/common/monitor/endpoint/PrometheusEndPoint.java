@@ -0,0 +1,411 @@
+package com.yibo.common.monitor.endpoint;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.yibo.common.monitor.MetricFamily;
+import com.yibo.common.monitor.MetricId;
+import com.yibo.common.monitor.MetricsHolder;
+import lombok.SneakyThrows;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.boot.actuate.endpoint.web.annotation.ControllerEndpoint;
+import org.springframework.web.bind.annotation.GetMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 以Prometheus文本格式输出全部监控指标，请求头 Accept 包含 application/openmetrics-text 时输出OpenMetrics格式
+ * <p>
+ * 直接遍历 {@link MetricsHolder#getMetricRegistry()} 背后的map写入响应流，不复制；转换后的指标名缓存下来，
+ * 请求头 Accept-Encoding 包含 gzip 时压缩输出。带标签的监控项（见 {@link MetricId}）按名字分组输出，标签作为label。
+ * 不同的监控名转换后相同时（如 a.b 和 a_b），只输出先占用这个指标名的监控项。
+ * <ul>
+ * <li>gauge: 数值类型的gauge，布尔值输出为0/1，其他类型忽略</li>
+ * <li>counter: gauge</li>
+ * <li>meter: {name}_total 计数和 {name}_m1_rate 一分钟速率</li>
+ * <li>histogram: summary，{name}_max 为窗口内的最大值</li>
+ * <li>timer: 单位为秒的summary {name}_seconds，{name}_seconds_max 为窗口内的最大值</li>
+ * </ul>
+ *
+ * @author yibo
+ * @date 2026-10-18
+ */
+@ControllerEndpoint(id = "yibo-metrics")
+public class PrometheusEndPoint {
+
+    private static final String PROMETHEUS_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String OPEN_METRICS_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+
+    private static final String[] QUANTILE_LABELS = {"quantile=\"0.5\"} ", "quantile=\"0.75\"} ", "quantile=\"0.95\"} ",
+            "quantile=\"0.98\"} ", "quantile=\"0.99\"} ", "quantile=\"0.999\"} "};
+
+    /**
+     * summary的指标名后缀：本身、_count、_max
+     */
+    private static final String[] SECONDS = {"_seconds", "_seconds_count", "_seconds_max"};
+
+    private static final String[] PLAIN = {"", "_count", "_max"};
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * 监控名到Prometheus指标名的缓存
+     */
+    private static final ConcurrentMap<String, String> NAMES = new ConcurrentHashMap<>();
+
+    /**
+     * 标签到Prometheus label的缓存
+     */
+    private static final ConcurrentMap<MetricId, String> LABELS = new ConcurrentHashMap<>();
+
+    /**
+     * Prometheus指标名到占用它的监控名
+     */
+    private static final ConcurrentMap<String, String> OWNERS = new ConcurrentHashMap<>();
+
+    @GetMapping(path = "/prometheus")
+    @SneakyThrows
+    public void scrape(HttpServletRequest request, HttpServletResponse response) {
+        final boolean openMetrics = StringUtils.contains(request.getHeader("Accept"), "application/openmetrics-text");
+        final boolean gzip = StringUtils.contains(request.getHeader("Accept-Encoding"), "gzip");
+        response.setContentType(openMetrics ? OPEN_METRICS_TYPE : PROMETHEUS_TYPE);
+        response.addHeader("Vary", "Accept, Accept-Encoding");
+        if (gzip) {
+            response.addHeader("Content-Encoding", "gzip");
+        }
+        final OutputStream output = gzip ? new GZIPOutputStream(response.getOutputStream(), BUFFER_SIZE)
+                : response.getOutputStream();
+        try (final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            write(writer, openMetrics);
+        }
+    }
+
+    /**
+     * 把全部指标写入writer，带标签的监控项按 {@link MetricFamily} 分组输出，标签作为label
+     *
+     * @param openMetrics true 为OpenMetrics格式，false 为Prometheus文本格式
+     */
+    static void write(Writer writer, boolean openMetrics) throws IOException {
+        // getMetrics() 是背后ConcurrentMap的只读视图，getNames()、getGauges() 等会复制一份排序的集合
+        final Map<String, Metric> metrics = MetricsHolder.getMetricRegistry().getMetrics();
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            // 和同名family类型相同的不带标签的监控项由 writeFamily 一起输出
+            if (MetricId.isTagged(entry.getKey())
+                    || isMerged(entry.getValue(), MetricsHolder.getMetricFamily(entry.getKey()))) {
+                continue;
+            }
+            final String name = claim(entry.getKey());
+            if (name == null) {
+                continue;
+            }
+            final Metric metric = entry.getValue();
+            if (metric instanceof Gauge) {
+                writeGauge(writer, name, (Gauge<?>) metric);
+                continue;
+            }
+            final Snapshot snapshot = metric instanceof Sampling ? ((Sampling) metric).getSnapshot() : null;
+            for (int part = 0; part < parts(metric); part++) {
+                type(writer, name, metric, part, openMetrics);
+                writePart(writer, name, null, metric, snapshot, part);
+            }
+        }
+        final Series series = new Series();
+        for (MetricFamily family : MetricsHolder.getMetricFamilies()) {
+            writeFamily(writer, family, metrics.get(family.getName()), series, openMetrics);
+        }
+        if (openMetrics) {
+            writer.write("# EOF\n");
+        }
+    }
+
+    /**
+     * 同一个family的所有标签组合连续输出，每种类型只输出一次TYPE
+     *
+     * @param plain  registry中和family同名、不带标签的监控项，类型相同时作为没有label的一组输出
+     * @param series 本次输出复用的缓冲区
+     */
+    private static void writeFamily(Writer writer, MetricFamily family, Metric plain, Series series,
+                                    boolean openMetrics) throws IOException {
+        series.size = 0;
+        if (isMerged(plain, family)) {
+            series.add(null, plain);
+        }
+        for (Map.Entry<MetricId, Metric> entry : family.getSeries().entrySet()) {
+            series.add(entry.getKey(), entry.getValue());
+        }
+        if (series.size == 0) {
+            return;
+        }
+        final String name = claim(family.getName());
+        if (name == null) {
+            return;
+        }
+        // family中的监控项类型都相同，见 MetricFamily#getType()
+        final Metric first = series.metrics[0];
+        for (int part = 0; part < parts(first); part++) {
+            type(writer, name, first, part, openMetrics);
+            for (int i = 0; i < series.size; i++) {
+                final MetricId id = series.ids[i];
+                writePart(writer, name, id == null ? null : labels(id), series.metrics[i], series.snapshots[i], part);
+            }
+        }
+    }
+
+    /**
+     * @return 不带标签的监控项是否作为同名family中没有label的一组输出，否则单独输出
+     */
+    private static boolean isMerged(Metric plain, MetricFamily family) {
+        return plain != null && family != null && family.getType() != null && plain.getClass() == family.getType();
+    }
+
+    private static void writeGauge(Writer writer, String name, Gauge<?> gauge) throws IOException {
+        final Object value;
+        try {
+            value = gauge.getValue();
+        } catch (RuntimeException e) {
+            // 单个gauge出错不影响其他指标
+            return;
+        }
+        if (value instanceof Number) {
+            type(writer, name, null, "gauge");
+            sample(writer, name, null, null, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            type(writer, name, null, "gauge");
+            sample(writer, name, null, null, (Boolean) value ? 1 : 0);
+        }
+    }
+
+    /**
+     * @return 一个监控项输出成几种Prometheus指标：timer和histogram为summary和_max，meter为计数和速率
+     */
+    private static int parts(Metric metric) {
+        if (metric instanceof Counter) {
+            return 1;
+        }
+        return metric instanceof Timer || metric instanceof Histogram || metric instanceof Meter ? 2 : 0;
+    }
+
+    private static void type(Writer writer, String name, Metric metric, int part, boolean openMetrics) throws IOException {
+        if (metric instanceof Counter) {
+            type(writer, name, null, "gauge");
+        } else if (metric instanceof Timer || metric instanceof Histogram) {
+            final String[] suffixes = metric instanceof Timer ? SECONDS : PLAIN;
+            type(writer, name, part == 0 ? suffixes[0] : suffixes[2], part == 0 ? "summary" : "gauge");
+        } else if (metric instanceof Meter) {
+            if (part == 0) {
+                type(writer, name, openMetrics ? null : "_total", "counter");
+            } else {
+                type(writer, name, "_m1_rate", "gauge");
+            }
+        }
+    }
+
+    /**
+     * @param labels   渲染好的label，没有标签时为null
+     * @param snapshot timer和histogram的快照
+     */
+    private static void writePart(Writer writer, String name, String labels, Metric metric, Snapshot snapshot, int part)
+            throws IOException {
+        if (metric instanceof Counter) {
+            sample(writer, name, null, labels, ((Counter) metric).getCount());
+        } else if (metric instanceof Timer || metric instanceof Histogram) {
+            final boolean timer = metric instanceof Timer;
+            final String[] suffixes = timer ? SECONDS : PLAIN;
+            final double scale = timer ? NANOS_PER_SECOND : 1;
+            if (part == 0) {
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    writer.write(name);
+                    writer.write(suffixes[0]);
+                    writer.write('{');
+                    if (labels != null) {
+                        writer.write(labels);
+                        writer.write(',');
+                    }
+                    writer.write(QUANTILE_LABELS[i]);
+                    writeDouble(writer, snapshot.getValue(QUANTILES[i]) / scale);
+                    writer.write('\n');
+                }
+                sample(writer, name, suffixes[1], labels, ((Counting) metric).getCount());
+            } else {
+                sample(writer, name, suffixes[2], labels, snapshot.getMax() / scale);
+            }
+        } else if (metric instanceof Meter) {
+            final Meter meter = (Meter) metric;
+            if (part == 0) {
+                sample(writer, name, "_total", labels, meter.getCount());
+            } else {
+                sample(writer, name, "_m1_rate", labels, meter.getOneMinuteRate());
+            }
+        }
+    }
+
+    private static void type(Writer writer, String name, String suffix, String type) throws IOException {
+        writer.write("# TYPE ");
+        writer.write(name);
+        if (suffix != null) {
+            writer.write(suffix);
+        }
+        writer.write(' ');
+        writer.write(type);
+        writer.write('\n');
+    }
+
+    private static void sample(Writer writer, String name, String suffix, String labels, long value) throws IOException {
+        writeName(writer, name, suffix, labels);
+        writer.write(Long.toString(value));
+        writer.write('\n');
+    }
+
+    private static void sample(Writer writer, String name, String suffix, String labels, double value) throws IOException {
+        writeName(writer, name, suffix, labels);
+        writeDouble(writer, value);
+        writer.write('\n');
+    }
+
+    private static void writeName(Writer writer, String name, String suffix, String labels) throws IOException {
+        writer.write(name);
+        if (suffix != null) {
+            writer.write(suffix);
+        }
+        if (labels != null) {
+            writer.write('{');
+            writer.write(labels);
+            writer.write('}');
+        }
+        writer.write(' ');
+    }
+
+    private static void writeDouble(Writer writer, double value) throws IOException {
+        if (Double.isNaN(value)) {
+            writer.write("NaN");
+        } else if (Double.isInfinite(value)) {
+            writer.write(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == (long) value) {
+            writer.write(Long.toString((long) value));
+        } else {
+            writer.write(Double.toString(value));
+        }
+    }
+
+    /**
+     * @return 转换后的指标名；已经被其他监控名占用时返回null，不输出
+     */
+    private static String claim(String name) {
+        final String sanitized = sanitize(name);
+        final String owner = OWNERS.get(sanitized);
+        if (owner != null) {
+            return owner.equals(name) ? sanitized : null;
+        }
+        final String existing = OWNERS.putIfAbsent(sanitized, name);
+        return existing == null || existing.equals(name) ? sanitized : null;
+    }
+
+    /**
+     * 监控名中不能出现在Prometheus指标名里的字符替换为下划线，结果缓存
+     */
+    static String sanitize(String name) {
+        final String cached = NAMES.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        final StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            final boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+                    || (i > 0 && c >= '0' && c <= '9');
+            builder.append(valid ? c : '_');
+        }
+        final String sanitized = builder.toString();
+        NAMES.putIfAbsent(name, sanitized);
+        return sanitized;
+    }
+
+    /**
+     * 标签渲染成 k1="v1",k2="v2"，label名中的非法字符替换为下划线，值中的反斜杠、引号和换行转义，结果缓存
+     */
+    static String labels(MetricId id) {
+        final String cached = LABELS.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < id.getTagCount(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            final String key = id.getTagKey(i);
+            for (int j = 0; j < key.length(); j++) {
+                final char c = key.charAt(j);
+                final boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+                        || (j > 0 && c >= '0' && c <= '9');
+                builder.append(valid ? c : '_');
+            }
+            builder.append("=\"");
+            final String value = id.getTagValue(i);
+            for (int j = 0; j < value.length(); j++) {
+                final char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    builder.append('\\').append(c);
+                } else if (c == '\n') {
+                    builder.append("\\n");
+                } else {
+                    builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+        final String labels = builder.toString();
+        LABELS.putIfAbsent(id, labels);
+        return labels;
+    }
+
+    /**
+     * 一个family的标签组合和快照，同一次输出中的所有family复用，按需扩容
+     */
+    private static final class Series {
+
+        private MetricId[] ids = new MetricId[16];
+
+        private Metric[] metrics = new Metric[16];
+
+        private Snapshot[] snapshots = new Snapshot[16];
+
+        private int size;
+
+        void add(MetricId id, Metric metric) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                metrics = Arrays.copyOf(metrics, size * 2);
+                snapshots = Arrays.copyOf(snapshots, size * 2);
+            }
+            ids[size] = id;
+            metrics[size] = metric;
+            snapshots[size] = metric instanceof Sampling ? ((Sampling) metric).getSnapshot() : null;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.yibo.common.monitor.graphite;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.graphite.GraphiteSender;
+import com.yibo.common.monitor.MetricId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * 异步发送的 {@link GraphiteSender}，供 {@link com.codahale.metrics.graphite.GraphiteReporter} 使用。
+ * <p>
+ * 上报线程只把数据点放入有界队列，不做网络操作；后台线程按批取出，通过 delegate 发送并flush。
+ * graphite不可用时后台线程关闭连接、按 1s 到 60s 指数退避后重连，发送失败的一批会重试，期间队列满了丢弃最早的数据点。
+ * 重试可能重复发送同一个数据点，graphite按时间戳覆盖，没有影响。
+ * 带标签的监控项按graphite 1.1的格式 name.count;k=v 发送，见 {@link MetricId}。
+ * <p>
+ * 指标:
+ * <ul>
+ * <li>bmonitor.graphite.queued: 队列中等待发送的数据点</li>
+ * <li>bmonitor.graphite.sent: 发送成功的数据点</li>
+ * <li>bmonitor.graphite.dropped: 队列满了丢弃的数据点</li>
+ * <li>bmonitor.graphite.failures: 发送失败的次数</li>
+ * </ul>
+ *
+ * @author yibo
+ * @date 2026-10-18
+ */
+public class AsyncGraphiteSender implements GraphiteSender {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncGraphiteSender.class);
+
+    private static final String PREFIX = "bmonitor.graphite";
+
+    private static final long MIN_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private final GraphiteSender delegate;
+
+    private final BlockingQueue<DataPoint> queue;
+
+    private final int batchSize;
+
+    private final Meter sent;
+
+    private final Meter dropped;
+
+    private final Meter failures;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /**
+     * @param delegate  真正发送数据的sender，只在后台线程中使用
+     * @param queueSize 最多缓存多少个数据点
+     * @param batchSize 每次发送多少个数据点
+     * @param registry  记录发送情况的registry
+     */
+    public AsyncGraphiteSender(GraphiteSender delegate, int queueSize, int batchSize, MetricRegistry registry) {
+        checkArgument(queueSize > 0, "queueSize must be positive.");
+        checkArgument(batchSize > 0, "batchSize must be positive.");
+        this.delegate = checkNotNull(delegate, "delegate must not be null.");
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.sent = registry.meter(MetricRegistry.name(PREFIX, "sent"));
+        this.dropped = registry.meter(MetricRegistry.name(PREFIX, "dropped"));
+        this.failures = registry.meter(MetricRegistry.name(PREFIX, "failures"));
+        registry.gauge(MetricRegistry.name(PREFIX, "queued"), () -> (Gauge<Integer>) queue::size);
+    }
+
+    /**
+     * 第一次调用时启动后台线程，连接由后台线程维护
+     */
+    @Override
+    public void connect() {
+        if (started.compareAndSet(false, true)) {
+            final Thread worker = new Thread(this::run, "bmonitor-graphite");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) {
+        final DataPoint point = new DataPoint(MetricId.moveSuffixBeforeTags(name), value, timestamp);
+        while (!queue.offer(point)) {
+            if (queue.poll() != null) {
+                dropped.mark();
+            }
+        }
+    }
+
+    /**
+     * 数据点由后台线程按批flush
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * 每次上报结束时都会调用，不能关闭后台线程
+     */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public int getFailures() {
+        return (int) failures.getCount();
+    }
+
+    private void run() {
+        final List<DataPoint> batch = new ArrayList<>(batchSize);
+        long backoff = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (batch.isEmpty()) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, batchSize - 1);
+                }
+                deliver(batch);
+                sent.mark(batch.size());
+                batch.clear();
+                backoff = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                failures.mark();
+                closeQuietly();
+                backoff = backoff == 0 ? MIN_BACKOFF_MILLIS : Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                LOGGER.warn("send {} metrics to graphite failed, retry in {} ms", batch.size(), backoff, e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        closeQuietly();
+    }
+
+    private void deliver(List<DataPoint> batch) throws IOException {
+        if (!delegate.isConnected()) {
+            delegate.connect();
+        }
+        for (DataPoint point : batch) {
+            delegate.send(point.name, point.value, point.timestamp);
+        }
+        delegate.flush();
+    }
+
+    private void closeQuietly() {
+        try {
+            delegate.close();
+        } catch (IOException e) {
+            LOGGER.debug("close graphite connection failed", e);
+        }
+    }
+
+    private static final class DataPoint {
+
+        final String name;
+
+        final String value;
+
+        final long timestamp;
+
+        DataPoint(String name, String value, long timestamp) {
+            this.name = name;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+}
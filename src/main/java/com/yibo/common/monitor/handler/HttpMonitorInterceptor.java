@@ -3,28 +3,47 @@ package com.yibo.common.monitor.handler;
 
 import com.codahale.metrics.Timer;
 import com.google.common.primitives.Ints;
-import com.yibo.common.monitor.BMonitor;
+import com.yibo.common.monitor.MetricsHolder;
 import com.yibo.common.utils.Safes;
 import org.springframework.core.NamedThreadLocal;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.method.HandlerMethod;
 import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiPredicate;
 
 /**
  * 监控Http的所有链接的timer
+ * <p>
+ * 监控名按 处理方法 + 匹配到的路径模式 只解析一次，和对应的 {@link Timer} 一起缓存，请求时只查两次map。
+ * 路径模式取自 {@link HandlerMapping#BEST_MATCHING_PATTERN_ATTRIBUTE}，注解配置了多个路径时取和路径模式的前缀、后缀完全匹配的那个；
+ * 没有路径模式时按请求路径在注解配置的路径中查找，不缓存。
  *
  * @author yibo
  * @date 2021-05-06
  **/
 public class HttpMonitorInterceptor implements HandlerInterceptor {
 
+    /**
+     * 处理方法 -> 路径模式 -> 监控
+     */
+    private static final ConcurrentMap<Method, ConcurrentMap<String, Monitor>> MONITORS = new ConcurrentHashMap<>();
+
+    /**
+     * 不需要监控的处理方法
+     */
+    private static final Monitor NONE = new Monitor("", null);
+
     private final NamedThreadLocal<Timer.Context> timerContextThreadLocal =
             new NamedThreadLocal<>("httpMonitorInterceptor");
 
@@ -34,11 +53,9 @@ public class HttpMonitorInterceptor implements HandlerInterceptor {
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
 
         if (handler instanceof HandlerMethod) {
-            String monitorName = getMonitorName(request, (HandlerMethod) handler);
-            if (!StringUtils.isEmpty(monitorName)) {
-                Timer.Context context = BMonitor.timer(monitorName);
-                timerContextThreadLocal.set(context);
-
+            final Monitor monitor = getMonitor(request, (HandlerMethod) handler);
+            if (monitor.timer != null) {
+                timerContextThreadLocal.set(monitor.timer.time());
             }
         }
 
@@ -46,20 +63,46 @@ public class HttpMonitorInterceptor implements HandlerInterceptor {
     }
 
     public static String getMonitorName(HttpServletRequest request, HandlerMethod handlerMethod) {
+        return getMonitor(request, handlerMethod).name;
+    }
 
-        String requestUri = Safes.of(request.getRequestURI());
+    private static Monitor getMonitor(HttpServletRequest request, HandlerMethod handlerMethod) {
+        final Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (!(pattern instanceof String)) {
+            final String requestUri = Safes.of(request.getRequestURI());
+            return Monitor.of(getMonitorName(handlerMethod, requestUri, String::contains, String::contains));
+        }
 
+        ConcurrentMap<String, Monitor> monitors = MONITORS.get(handlerMethod.getMethod());
+        if (monitors == null) {
+            monitors = MONITORS.computeIfAbsent(handlerMethod.getMethod(), method -> new ConcurrentHashMap<>(4));
+        }
+        Monitor monitor = monitors.get(pattern);
+        if (monitor == null) {
+            monitor = monitors.computeIfAbsent((String) pattern, key -> Monitor.of(getMonitorName(handlerMethod, key,
+                    HttpMonitorInterceptor::isPrefix, HttpMonitorInterceptor::isSuffix)));
+        }
+        return monitor;
+    }
 
+    /**
+     * @param requestUri       请求路径或者匹配到的路径模式，配置了多个路径时用来选择
+     * @param controllerMatch  controller上配置的路径是否和requestUri匹配
+     * @param methodMatch      处理方法上配置的路径是否和requestUri匹配
+     */
+    private static String getMonitorName(HandlerMethod handlerMethod, String requestUri,
+                                         BiPredicate<String, String> controllerMatch,
+                                         BiPredicate<String, String> methodMatch) {
         StringBuilder monitorNameBuilder = new StringBuilder();
         RequestMapping requestMapping = handlerMethod.getMethodAnnotation(RequestMapping.class);
         Class<?> controllerClass = handlerMethod.getBeanType();
         RequestMapping requestMappingForController =
                 controllerClass.getAnnotation(RequestMapping.class);
         if (requestMappingForController != null) {
-            monitorNameBuilder.append(getMappingPath(requestMappingForController.value(), requestUri));
+            monitorNameBuilder.append(getMappingPath(requestMappingForController.value(), requestUri, controllerMatch));
         }
         if (requestMapping != null) {
-            monitorNameBuilder.append(getMappingPath(requestMapping.value(), requestUri));
+            monitorNameBuilder.append(getMappingPath(requestMapping.value(), requestUri, methodMatch));
         }
         if (monitorNameBuilder.length() == 0) {
             return "";
@@ -72,10 +115,11 @@ public class HttpMonitorInterceptor implements HandlerInterceptor {
      * 获取controller里配置的路径
      *
      * @param value RequestMapping配置的路径
-     * @param requestUri 完整的请求路径
+     * @param requestUri 完整的请求路径或路径模式
+     * @param match 配置的路径是否和requestUri匹配，参数依次为requestUri和配置的路径
      * @return 匹配到的路径
      */
-    private static String getMappingPath(String[] value, String requestUri) {
+    private static String getMappingPath(String[] value, String requestUri, BiPredicate<String, String> match) {
         if (value == null || value.length == 0) {
             return "";
         }
@@ -84,13 +128,39 @@ public class HttpMonitorInterceptor implements HandlerInterceptor {
         }
         Arrays.sort(value, STRING_LENGTH_REVERSE);
         for (String item : value) {
-            if (requestUri.contains(item)) {
+            if (match.test(requestUri, item)) {
                 return item;
             }
         }
         return "";
     }
 
+    /**
+     * @return 路径模式是否以配置的路径开头，并且在 / 处分隔
+     */
+    private static boolean isPrefix(String pattern, String item) {
+        final String path = normalize(item);
+        return pattern.startsWith(path) && (pattern.length() == path.length() || pattern.charAt(path.length()) == '/');
+    }
+
+    /**
+     * @return 路径模式是否以配置的路径结尾
+     */
+    private static boolean isSuffix(String pattern, String item) {
+        return pattern.endsWith(normalize(item));
+    }
+
+    /**
+     * @return 以 / 开头、不以 / 结尾的路径，根路径为空串
+     */
+    private static String normalize(String item) {
+        String path = item.startsWith("/") ? item : "/" + item;
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
     @Override
     public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
                            ModelAndView modelAndView) {
@@ -109,4 +179,22 @@ public class HttpMonitorInterceptor implements HandlerInterceptor {
         }
     }
 
+    /**
+     * 监控名和对应的timer，监控名为空时timer为null
+     */
+    private static final class Monitor {
+
+        final String name;
+
+        final Timer timer;
+
+        private Monitor(String name, Timer timer) {
+            this.name = name;
+            this.timer = timer;
+        }
+
+        static Monitor of(String name) {
+            return StringUtils.isEmpty(name) ? NONE : new Monitor(name, MetricsHolder.timer(name));
+        }
+    }
 }